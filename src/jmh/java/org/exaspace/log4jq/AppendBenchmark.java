@@ -0,0 +1,96 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost to the application thread of a logging call through AsyncJdbcAppender.
+ *
+ * The queue is large and the writer writes to an in-memory database, but producers
+ * can still outrun it: once the queue is full the figures include the cost of the
+ * overflow policy (see the appender's discard count printed at tear down).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AppendBenchmark {
+
+    /**
+     * none, log4j (LoggingEvent.getLocationInformation()) or fast (CallerLocator).
+     */
+    @Param({"none", "log4j", "fast"})
+    public String locationInfo;
+
+    @Param({"deque", "ringBuffer", "striped"})
+    public String queueType;
+
+    private BenchmarkDatabase db;
+    private AsyncJdbcAppender appender;
+    private Logger logger;
+
+    @Setup
+    public void setup() throws Exception {
+        db = new BenchmarkDatabase();
+        appender = new AsyncJdbcAppender();
+        BenchmarkDatabase.configure(appender);
+        appender.setLocationInfo(!"none".equals(locationInfo));
+        appender.setFastLocationInfo("fast".equals(locationInfo));
+        appender.setQueueType(queueType);
+        appender.setMaxElements(1000000);
+        appender.setBatchSize(500);
+        appender.setGracefulShutdownTimeMillis(0);
+        appender.activateOptions();
+
+        logger = Logger.getLogger(AppendBenchmark.class);
+        logger.removeAllAppenders();
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        logger.addAppender(appender);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println(appender.getStateInfo());
+        logger.removeAllAppenders();
+        appender.close();
+        db.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append1Thread() {
+        log();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void append4Threads() {
+        log();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void append16Threads() {
+        log();
+    }
+
+    private void log() {
+        NDC.push("bench");
+        logger.info("benchmark message");
+        NDC.pop();
+    }
+
+}
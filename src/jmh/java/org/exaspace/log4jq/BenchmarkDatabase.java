@@ -0,0 +1,71 @@
+package org.exaspace.log4jq;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-memory HSQLDB database with the applog table used by the benchmarks.
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+    static final String URL = "jdbc:hsqldb:mem:log4jqbench";
+    static final String DRIVER = "org.hsqldb.jdbc.JDBCDriver";
+    static final String SQL = "INSERT INTO applog (LogDate, Logger, Priority, ThreadID, Context, Message, Trace) VALUES (CURRENT_TIMESTAMP, ?, ?, ?, ?, ?, ?)";
+    static final String SQL_PARAMS = "%c, %p, %t, %x, %m, %throwable";
+
+    private final Connection conn;
+
+    BenchmarkDatabase() throws SQLException {
+        conn = DriverManager.getConnection(URL, "SA", "");
+        execute("DROP TABLE applog IF EXISTS");
+        execute("CREATE TABLE applog (\n" +
+                "      ID int identity NOT NULL,\n" +
+                "      LogDate datetime NOT NULL,\n" +
+                "      Logger varchar(100) NOT NULL,\n" +
+                "      Priority varchar(20) NOT NULL,\n" +
+                "      ThreadID varchar(50) NULL,\n" +
+                "      Context varchar(100) NOT NULL,\n" +
+                "      Message varchar(255) NULL,\n" +
+                "      Trace clob NULL)");
+    }
+
+    /**
+     * Remove all rows so that table growth does not skew later iterations.
+     */
+    void truncate() throws SQLException {
+        execute("TRUNCATE TABLE applog");
+    }
+
+    @Override
+    public void close() throws SQLException {
+        execute("DROP TABLE applog IF EXISTS");
+        conn.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    static void configure(DiscardingJdbcAppender appender) {
+        appender.setUrl(URL);
+        appender.setDriver(DRIVER);
+        appender.setUser("SA");
+        appender.setPassword("");
+        appender.setSql(SQL);
+        appender.setSqlParams(SQL_PARAMS);
+    }
+
+    static void configure(AsyncJdbcAppender appender) {
+        appender.setUrl(URL);
+        appender.setDriver(DRIVER);
+        appender.setUser("SA");
+        appender.setPassword("");
+        appender.setSql(SQL);
+        appender.setSqlParams(SQL_PARAMS);
+    }
+
+}
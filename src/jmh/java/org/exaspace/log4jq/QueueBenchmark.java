@@ -0,0 +1,84 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-off of events from producer threads to a writer thread through each queue engine.
+ * Offers to a full queue and polls of an empty one are counted too, as the appender
+ * makes the same calls in those cases.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueueBenchmark {
+
+    @Param({"deque", "ringBuffer", "priority", "striped"})
+    public String queueType;
+
+    @Param({"1024", "65536"})
+    public int capacity;
+
+    private EventQueue queue;
+    private LoggingEvent event;
+
+    @Setup
+    public void setup() {
+        switch (queueType) {
+            case "ringBuffer":
+                queue = new RingBufferEventQueue(capacity);
+                break;
+            case "striped":
+                queue = new StripedEventQueue(Runtime.getRuntime().availableProcessors(), capacity, false);
+                break;
+            case "priority":
+                queue = new PriorityEventQueue(new int[]{capacity, capacity, capacity}, new int[]{8, 4, 1});
+                break;
+            default:
+                queue = new DequeEventQueue(capacity);
+        }
+        event = new LoggingEvent(Logger.class.getName(), Logger.getLogger(QueueBenchmark.class), Level.INFO, "benchmark message", null);
+    }
+
+    @Benchmark
+    @Group("oneProducer")
+    @GroupThreads(1)
+    public boolean offerOneProducer() {
+        return queue.offer(event);
+    }
+
+    @Benchmark
+    @Group("oneProducer")
+    @GroupThreads(1)
+    public LoggingEvent pollOneProducer() {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("fourProducers")
+    @GroupThreads(4)
+    public boolean offerFourProducers() {
+        return queue.offer(event);
+    }
+
+    @Benchmark
+    @Group("fourProducers")
+    @GroupThreads(1)
+    public LoggingEvent pollFourProducers() {
+        return queue.poll();
+    }
+
+}
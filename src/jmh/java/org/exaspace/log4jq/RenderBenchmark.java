@@ -0,0 +1,89 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering the SQL parameters of one event, compared with formatting
+ * each parameter with its own EnhancedPatternLayout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RenderBenchmark {
+
+    @Param({
+            "%c, %p, %t, %x, %m, %throwable",
+            "%d{ISO8601}, %c, %p, %t, %F:%L, %x, %X{user}, %m, %throwable"})
+    public String sqlParams;
+
+    @Param({"false", "true"})
+    public boolean withThrowable;
+
+    private DiscardingJdbcAppender appender;
+    private EnhancedPatternLayout[] layouts;
+    private LoggingEvent event;
+
+    @Setup
+    public void setup() {
+        appender = new DiscardingJdbcAppender();
+        BenchmarkDatabase.configure(appender);
+        appender.setSqlParams(sqlParams);
+        appender.setSql(sqlFor(sqlParams));
+        appender.activateOptions();
+        String[] frags = sqlParams.split("\\s*,\\s*");
+        layouts = new EnhancedPatternLayout[frags.length];
+        for (int i = 0; i < frags.length; i++)
+            layouts[i] = new EnhancedPatternLayout(frags[i]);
+        NDC.push("bench");
+        event = new LoggingEvent(Logger.class.getName(), Logger.getLogger(RenderBenchmark.class), Level.ERROR,
+                "benchmark message", withThrowable ? new Exception("benchmark") : null);
+        event.getNDC();
+        event.getThreadName();
+        event.getLocationInformation();
+        NDC.remove();
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.close();
+    }
+
+    @Benchmark
+    public String[] render() {
+        return appender.render(event);
+    }
+
+    @Benchmark
+    public String[] layoutFormat() {
+        String[] params = new String[layouts.length];
+        for (int i = 0; i < layouts.length; i++)
+            params[i] = layouts[i].format(event);
+        return params;
+    }
+
+    /*
+     * An insert statement with one wildcard per parameter (nothing is executed).
+     */
+    private static String sqlFor(String sqlParams) {
+        StringBuilder sb = new StringBuilder("INSERT INTO applog VALUES (?");
+        for (int i = 1; i < sqlParams.split(",").length; i++)
+            sb.append(", ?");
+        return sb.append(")").toString();
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for the writer to insert one batch of events into an embedded HSQLDB database.
+ * Divide by batchSize for the cost per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriterBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    private BenchmarkDatabase db;
+    private DiscardingJdbcAppender appender;
+    private final List<LoggingEvent> batch = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        db = new BenchmarkDatabase();
+        appender = new DiscardingJdbcAppender();
+        BenchmarkDatabase.configure(appender);
+        appender.activateOptions();
+        Logger logger = Logger.getLogger(WriterBenchmark.class);
+        for (int i = 0; i < batchSize; i++) {
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, org.apache.log4j.Level.INFO, "benchmark message " + i, null);
+            event.getNDC();
+            event.getThreadName();
+            batch.add(event);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() throws Exception {
+        db.truncate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        appender.close();
+        db.close();
+    }
+
+    @Benchmark
+    public int writeBatch() {
+        return appender.appendEvents(batch);
+    }
+
+}
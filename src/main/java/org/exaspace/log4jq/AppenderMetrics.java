@@ -0,0 +1,261 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of an AsyncJdbcAppender: queue depth, enqueue, discard and write counts and rates,
+ * enqueue-to-commit and insert latency histograms, and reconnects.
+ *
+ * Enqueue-to-commit latency is measured from the event timestamp, so it has millisecond resolution.
+ * Insert latency is the time taken by each executeUpdate() or executeBatch() call.
+ * Producer (application thread) timings are only available with producerTiming enabled.
+ */
+public class AppenderMetrics implements AppenderMetricsMBean {
+
+    private static final int TOP_PRODUCERS = 10;
+
+    private final AsyncJdbcAppender appender;
+    private final ProducerTiming timing;
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong disconnectedMillis = new AtomicLong();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LatencyHistogram insertLatency = new LatencyHistogram();
+
+    private long lastSampleNanos = System.nanoTime();
+    private long lastEnqueued, lastDiscarded, lastWritten;
+    private volatile double enqueueRate, discardRate, writeRate;
+
+    AppenderMetrics(AsyncJdbcAppender appender, ProducerTiming timing) {
+        this.appender = appender;
+        this.timing = timing;
+    }
+
+    void queueDepth(int depth) {
+        int m;
+        while (depth > (m = highWaterMark.get()) && !highWaterMark.compareAndSet(m, depth)) {
+            // retry
+        }
+    }
+
+    /*
+     * The events were written, apart from the given number which the database rejected.
+     */
+    void committed(List<LoggingEvent> events, int rejected) {
+        long now = System.currentTimeMillis();
+        for (LoggingEvent event : events)
+            commitLatency.record((now - event.getTimeStamp()) * 1000);
+        written.addAndGet(events.size() - rejected);
+    }
+
+    void inserted(long nanos) {
+        insertLatency.record(nanos / 1000);
+    }
+
+    void reconnected(long disconnectedMillis) {
+        reconnects.incrementAndGet();
+        this.disconnectedMillis.addAndGet(disconnectedMillis);
+    }
+
+    /*
+     * Update the rates (called every metricsIntervalMillis by the metrics thread).
+     */
+    synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        long enqueued = getEnqueued(), discarded = getDiscarded(), written = getWritten();
+        if (seconds > 0) {
+            enqueueRate = (enqueued - lastEnqueued) / seconds;
+            discardRate = (discarded - lastDiscarded) / seconds;
+            writeRate = (written - lastWritten) / seconds;
+        }
+        lastSampleNanos = now;
+        lastEnqueued = enqueued;
+        lastDiscarded = discarded;
+        lastWritten = written;
+        if (timing != null)
+            timing.retireDeadThreads();
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public LatencyHistogram getInsertLatency() {
+        return insertLatency;
+    }
+
+    /**
+     * Per producer thread timings of append(), or null unless producerTiming is enabled.
+     */
+    public ProducerTiming getProducerTiming() {
+        return timing;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return appender.queueDepth();
+    }
+
+    @Override
+    public int getQueueHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    @Override
+    public long getEnqueued() {
+        return appender.submittedCount();
+    }
+
+    @Override
+    public long getDiscarded() {
+        return appender.discardedCount();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return appender.coalescedCount();
+    }
+
+    @Override
+    public long getWritten() {
+        return written.get();
+    }
+
+    @Override
+    public int getBatchSize() {
+        return appender.maxBatch();
+    }
+
+    @Override
+    public double getEnqueueRate() {
+        return enqueueRate;
+    }
+
+    @Override
+    public double getDiscardRate() {
+        return discardRate;
+    }
+
+    @Override
+    public double getWriteRate() {
+        return writeRate;
+    }
+
+    @Override
+    public double getCommitLatencyMeanMicros() {
+        return commitLatency.mean();
+    }
+
+    @Override
+    public long getCommitLatencyP50Micros() {
+        return commitLatency.percentile(50);
+    }
+
+    @Override
+    public long getCommitLatencyP99Micros() {
+        return commitLatency.percentile(99);
+    }
+
+    @Override
+    public long getCommitLatencyMaxMicros() {
+        return commitLatency.max();
+    }
+
+    @Override
+    public double getInsertLatencyMeanMicros() {
+        return insertLatency.mean();
+    }
+
+    @Override
+    public long getInsertLatencyP50Micros() {
+        return insertLatency.percentile(50);
+    }
+
+    @Override
+    public long getInsertLatencyP99Micros() {
+        return insertLatency.percentile(99);
+    }
+
+    @Override
+    public long getInsertLatencyMaxMicros() {
+        return insertLatency.max();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getDisconnectedMillis() {
+        return disconnectedMillis.get();
+    }
+
+    @Override
+    public long getProducerAppends() {
+        return timing == null ? 0 : timing.appends();
+    }
+
+    @Override
+    public long getProducerMonitorMicros() {
+        return timing == null ? 0 : timing.monitorNanos() / 1000;
+    }
+
+    @Override
+    public long getProducerRenderMicros() {
+        return timing == null ? 0 : timing.renderNanos() / 1000;
+    }
+
+    @Override
+    public long getProducerLocationMicros() {
+        return timing == null ? 0 : timing.locationNanos() / 1000;
+    }
+
+    @Override
+    public long getProducerEnqueueMicros() {
+        return timing == null ? 0 : timing.enqueueNanos() / 1000;
+    }
+
+    @Override
+    public String[] getTopProducers() {
+        return timing == null ? new String[0] : timing.topThreads(TOP_PRODUCERS);
+    }
+
+    @Override
+    public void reset() {
+        highWaterMark.set(appender.queueDepth());
+        commitLatency.reset();
+        insertLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getQueueDepth() +
+                " highWaterMark=" + getQueueHighWaterMark() +
+                " enqueued=" + getEnqueued() +
+                " discarded=" + getDiscarded() +
+                " coalesced=" + getCoalesced() +
+                " written=" + getWritten() +
+                " batchSize=" + getBatchSize() +
+                String.format(" enqueueRate=%.1f/s discardRate=%.1f/s writeRate=%.1f/s", enqueueRate, discardRate, writeRate) +
+                " commitLatencyP50=" + getCommitLatencyP50Micros() + "us" +
+                " commitLatencyP99=" + getCommitLatencyP99Micros() + "us" +
+                " insertLatencyP50=" + getInsertLatencyP50Micros() + "us" +
+                " insertLatencyP99=" + getInsertLatencyP99Micros() + "us" +
+                " reconnects=" + getReconnects() +
+                " disconnectedMillis=" + getDisconnectedMillis() +
+                (timing == null ? "" :
+                        " producerAppends=" + getProducerAppends() +
+                        " producerMonitor=" + getProducerMonitorMicros() + "us" +
+                        " producerRender=" + getProducerRenderMicros() + "us" +
+                        " producerLocation=" + getProducerLocationMicros() + "us" +
+                        " producerEnqueue=" + getProducerEnqueueMicros() + "us");
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.exaspace.log4jq;
+
+/**
+ * JMX view of AppenderMetrics. Rates are per second over the last metricsIntervalMillis,
+ * latencies are in microseconds.
+ */
+public interface AppenderMetricsMBean {
+
+    int getQueueDepth();
+
+    int getQueueHighWaterMark();
+
+    long getEnqueued();
+
+    long getDiscarded();
+
+    /**
+     * Events counted as repeats of a queued event (see coalesceWindowMillis).
+     */
+    long getCoalesced();
+
+    long getWritten();
+
+    /**
+     * The most messages the writer currently takes per batch (varies with adaptiveBatchSize).
+     */
+    int getBatchSize();
+
+    double getEnqueueRate();
+
+    double getDiscardRate();
+
+    double getWriteRate();
+
+    double getCommitLatencyMeanMicros();
+
+    long getCommitLatencyP50Micros();
+
+    long getCommitLatencyP99Micros();
+
+    long getCommitLatencyMaxMicros();
+
+    double getInsertLatencyMeanMicros();
+
+    long getInsertLatencyP50Micros();
+
+    long getInsertLatencyP99Micros();
+
+    long getInsertLatencyMaxMicros();
+
+    long getReconnects();
+
+    long getDisconnectedMillis();
+
+    /*
+     * Totals over all application threads of the time spent in each phase of append()
+     * (zero unless producerTiming is enabled).
+     */
+
+    long getProducerAppends();
+
+    long getProducerMonitorMicros();
+
+    long getProducerRenderMicros();
+
+    long getProducerLocationMicros();
+
+    long getProducerEnqueueMicros();
+
+    /**
+     * The application threads which have spent the most time in append().
+     */
+    String[] getTopProducers();
+
+    /**
+     * Reset the high water mark and latency histograms.
+     * The high water mark restarts from the current queue depth, so it is approximate:
+     * a depth reached by a producer racing with the reset may be lost or kept.
+     */
+    void reset();
+
+}
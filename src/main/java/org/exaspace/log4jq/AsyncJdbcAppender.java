@@ -2,11 +2,36 @@ package org.exaspace.log4jq;
 
 import org.apache.log4j.Appender;
 import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
 import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Asynchronous database appender.
@@ -20,87 +45,319 @@ import java.util.concurrent.LinkedBlockingDeque;
  * # you need this (slow!) if using location pattern conversions like %F
  * log4j.appender.JDBC_ASYNC.locationInfo = true
  *
+ * # find the location by walking only as far as the caller (StackWalker on Java 9+),
+ * # caching it per call site, instead of using LoggingEvent.getLocationInformation()
+ * log4j.appender.JDBC_ASYNC.fastLocationInfo = true
+ *
  * # the max size of the memory queue
  * log4j.appender.JDBC_ASYNC.maxElements = 1000000
  *
+ * # the max (estimated) heap used by queued messages, 0 for no limit
+ * log4j.appender.JDBC_ASYNC.maxQueueBytes = 268435456
+ *
+ * # overflow messages to a memory-mapped disk journal once the memory queue holds spillHighWaterMark messages
+ * # (the journal survives restarts and is replayed in order)
+ * log4j.appender.JDBC_ASYNC.spillDirectory = /var/spool/myapp/log4jq
+ * log4j.appender.JDBC_ASYNC.spillHighWaterMark = 800000
+ * log4j.appender.JDBC_ASYNC.spillSegmentBytes = 67108864
+ * log4j.appender.JDBC_ASYNC.maxSpillBytes = 1073741824
+ *
  * # how often to report message discard warnings (recommended at least 1000)
  * # set to -1 to disable error reporting (will generate a warning)
  * log4j.appender.JDBC_ASYNC.errorReportIntervalMillis = 60000
  *
+ * # what to do when the queue is full: dropNewest (default), dropOldest, dropLowerLevel, block or sample
+ * log4j.appender.JDBC_ASYNC.overflowPolicy = dropLowerLevel
+ *
+ * # with overflowPolicy=block, the longest time an application thread waits for room in the queue
+ * log4j.appender.JDBC_ASYNC.overflowBlockMillis = 1000
+ *
+ * # with overflowPolicy=sample, once the queue is sampleFillPercent full keep only samplePercent of INFO and lower
+ * log4j.appender.JDBC_ASYNC.sampleFillPercent = 80
+ * log4j.appender.JDBC_ASYNC.samplePercent = 10
+ *
  * # report a periodic warning if number of messages in queue exceeds given value
  * log4j.appender.JDBC_ASYNC.warningThreshold = 100000
  *
  * # how long to process messages still in queue after shutdown
  * log4j.appender.JDBC_ASYNC.gracefulShutdownTimeMillis = 60000;
  *
+ * # max messages to insert per JDBC batch (1 disables batching)
+ * log4j.appender.JDBC_ASYNC.batchSize = 500
+ *
+ * # how long the writer may wait for a batch to fill up before sending it
+ * log4j.appender.JDBC_ASYNC.maxBatchLatencyMillis = 100
+ *
+ * # adapt the batch size between minBatchSize and batchSize (and the wait between 0 and maxBatchLatencyMillis)
+ * # to the queue depth and commit latency, see BatchSizer
+ * log4j.appender.JDBC_ASYNC.adaptiveBatchSize = true
+ * log4j.appender.JDBC_ASYNC.minBatchSize = 10
+ * log4j.appender.JDBC_ASYNC.batchLatencyTargetMillis = 200
+ *
+ * # render the sql parameters when the message is logged and queue only the rendered strings
+ * log4j.appender.JDBC_ASYNC.preRenderParams = true
+ *
+ * # collapse identical messages (logger, level, message, stack trace) logged within this window into one
+ * # queued event while it waits for the writer; the row gets %X{log4jq.repeatCount} and %X{log4jq.lastTimeMillis}
+ * log4j.appender.JDBC_ASYNC.coalesceWindowMillis = 1000
+ *
+ * # number of writer threads, each with its own database connection
+ * log4j.appender.JDBC_ASYNC.writerThreads = 4
+ *
+ * # or: one writer forms batches and writes each on its own virtual thread (JDK 21+, otherwise a
+ * # pool of platform threads), with at most maxConcurrentInserts (and connections) at once
+ * log4j.appender.JDBC_ASYNC.virtualThreads = true
+ * log4j.appender.JDBC_ASYNC.maxConcurrentInserts = 32
+ *
+ * # while the database is down, write messages to this file instead of holding them in the queue
+ * log4j.appender.JDBC_ASYNC.fallbackFile = /var/log/myapp/log4jq-fallback.log
+ * log4j.appender.JDBC_ASYNC.fallbackPattern = %d{ISO8601} %-5p [%t] %c %x - %m%n
+ *
+ * # reconnect attempts back off exponentially (with jitter) from reconnectTimeMillis up to this
+ * log4j.appender.JDBC_ASYNC.maxReconnectTimeMillis = 120000
+ *
+ * # queue engine: deque (default, LinkedBlockingDeque), ringBuffer (lock-free, preallocated)
+ * # or priority (separate queues for ERROR+, WARN and INFO-, see PriorityEventQueue)
+ * # or striped (a ring buffer per group of producer threads, see StripedEventQueue)
+ * log4j.appender.JDBC_ASYNC.queueType = ringBuffer
+ *
+ * # with queueType=striped, the number of stripes (default: number of processors)
+ * # and whether the writer restores timestamp order across stripes
+ * log4j.appender.JDBC_ASYNC.queueStripes = 64
+ * log4j.appender.JDBC_ASYNC.stripeMerge = true
+ *
+ * # with queueType=priority, the capacity of each level group (ERROR+, WARN, INFO-)
+ * # and how many messages the writer takes from each group per round
+ * log4j.appender.JDBC_ASYNC.priorityCapacities = 100000, 100000, 800000
+ * log4j.appender.JDBC_ASYNC.priorityWeights = 8, 4, 1
+ *
+ * # skip the AppenderSkeleton monitor on the application (producer) side
+ * log4j.appender.JDBC_ASYNC.lockFreeAppend = true
+ *
+ * # how the writer waits for messages: blocking (default), sleeping, yielding or busySpin
+ * log4j.appender.JDBC_ASYNC.waitStrategy = sleeping
+ *
+ * # longest back-off sleep for the sleeping wait strategy
+ * log4j.appender.JDBC_ASYNC.maxWaitSleepMillis = 10
+ *
+ * # register the appender's metrics (see AppenderMetrics) as an MBean named
+ * # org.exaspace.log4jq:type=AsyncJdbcAppender,name=&lt;appender name&gt;
+ * log4j.appender.JDBC_ASYNC.jmx = true
+ *
+ * # pass the metrics to a MetricsListener every metricsIntervalMillis (also the rate sampling interval)
+ * log4j.appender.JDBC_ASYNC.metricsListener = com.example.MyMetricsListener
+ * log4j.appender.JDBC_ASYNC.metricsIntervalMillis = 10000
+ *
+ * # time each phase of append() per application thread and add it to the metrics (see ProducerTiming)
+ * log4j.appender.JDBC_ASYNC.producerTiming = true
+ *
  * </pre>
  *
  * @see DiscardingJdbcAppender
  */
-public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
+public class AsyncJdbcAppender extends AppenderSkeleton implements Appender, AppenderAttachable {
 
     final class LogWriterThread extends Thread {
 
         private final DiscardingJdbcAppender appender;
-        private int count = 0;
 
-        private LogWriterThread(DiscardingJdbcAppender a) {
+        private LogWriterThread(DiscardingJdbcAppender a, int index) {
+            super("log4jq-writer-" + index);
             this.appender = a;
         }
 
         public void run() {
-            debug("JDBC LOG WRITER THREAD STARTED");
-            long breakTime = -1;
+            debug("JDBC LOG WRITER THREAD STARTED " + getName());
+            final List<LoggingEvent> batch = new ArrayList<LoggingEvent>(batchSize);
             try {
                 while (true) {
-                    if (breakTime == -1 && isInterrupted()) {
-                        breakTime = System.currentTimeMillis() + gracefulShutdownTimeMillis;
-                        debug("Will exit in millis: " + breakTime);
-                    }
-                    if (breakTime != -1 && System.currentTimeMillis() >= breakTime) {
+                    if (System.currentTimeMillis() >= shutdownDeadline) {
                         debug("Break time reached");
                         break;
                     }
                     try {
-                        synchronized (AsyncJdbcAppender.this) {
-                            if (closed && reservations == 0)
+                        if (batch.isEmpty()) {
+                            if (closed && reservations.get() == 0)
                                 break;
+                            try {
+                                batch.add(waitStrategy.take(queue));
+                                if (maxBatch() > 1)
+                                    fillBatch(batch);
+                            } finally {
+                                reservations.addAndGet(-batch.size());
+                            }
                         }
-                        LoggingEvent event = queue.take();
-                        synchronized (AsyncJdbcAppender.this) {
-                            --reservations;
-                        }
-                        write(event);
+                        write(batch);
+                        batch.clear();
                     } catch (InterruptedException e) {
                         info("INTERRUPTED");
                     }
                 }
             } finally {
-                appender.close();
+                if (writerExecutor != null)
+                    awaitBatchWriters();
+                else
+                    appender.close();
+                if (liveWriters.decrementAndGet() == 0) {
+                    if (spillQueue != null)
+                        spillQueue.close();
+                    synchronized (fallbackAppenders) {
+                        fallbackAppenders.removeAllAppenders(); // closes them
+                    }
+                }
             }
-            if (reservations > 0)
-                warn(SHUTDOWN_DISCARD, reservations);
+            final int spilled = spillQueue == null ? 0 : spillQueue.spilled();
+            if (reservations.get() > spilled)
+                warn(SHUTDOWN_DISCARD, reservations.get() - spilled);
             else
                 info(SHUTDOWN_OK);
+            if (spilled > 0)
+                info(String.format(SHUTDOWN_SPILLED, spilled));
         }
 
-        void write(final LoggingEvent event) throws InterruptedException {
-            do {
-                count++;
-                if (closed && reservations > 0 && count % 1000 == 0) {
-                    info("Clearing queue. Remaining=" + reservations);
-                }
-                if (appender.appendEvent(event)) {
+        /*
+         * Add further queued events to the batch, waiting at most maxBatchLatencyMillis
+         * for the batch to fill up.
+         */
+        private void fillBatch(final List<LoggingEvent> batch) throws InterruptedException {
+            final int batchSize = maxBatch();
+            final long maxWait = batchSizer == null ? maxBatchLatencyMillis : batchSizer.waitMillis();
+            queue.drainTo(batch, batchSize - batch.size());
+            if (maxWait <= 0)
+                return;
+            final long deadline = System.currentTimeMillis() + maxWait;
+            while (batch.size() < batchSize && !closed) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    break;
+                LoggingEvent event = waitStrategy.poll(queue, wait, TimeUnit.MILLISECONDS);
+                if (event == null)
                     break;
+                batch.add(event);
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+        }
+
+        void write(final List<LoggingEvent> batch) throws InterruptedException {
+            if (coalescer != null) {
+                for (LoggingEvent event : batch) {
+                    if (event instanceof CoalescedLoggingEvent)
+                        ((CoalescedLoggingEvent) event).seal();
+                }
+            }
+            if (writerExecutor != null)
+                dispatch(new ArrayList<LoggingEvent>(batch));
+            else
+                writeBatch(appender, batch);
+        }
+
+        /*
+         * Hand the batch to a batch writer task, waiting for one of the appenders to be free
+         * (so at most maxConcurrentInserts are in flight).
+         */
+        private void dispatch(final List<LoggingEvent> batch) throws InterruptedException {
+            final DiscardingJdbcAppender a = idleAppenders.take();
+            try {
+                writerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            writeBatch(a, batch);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            release(a);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release(a);
+                throw e;
+            }
+        }
+
+        /*
+         * Return a batch appender once its task is done, or close it if the batch writers have stopped
+         * (so an appender is never closed while a task is still writing with it).
+         */
+        private void release(DiscardingJdbcAppender a) {
+            synchronized (idleAppenders) {
+                if (!batchWritersStopped) {
+                    idleAppenders.add(a);
+                    return;
+                }
+            }
+            a.close();
+        }
+
+        /*
+         * Wait (until the shutdown deadline) for batches in flight on the executor, then interrupt any
+         * still running. The idle appenders are closed here, and busy ones by their task when it ends.
+         */
+        private void awaitBatchWriters() {
+            writerExecutor.shutdown();
+            long wait;
+            while ((wait = shutdownDeadline - System.currentTimeMillis()) > 0) {
+                try {
+                    if (writerExecutor.awaitTermination(wait, TimeUnit.MILLISECONDS))
+                        break;
+                } catch (InterruptedException e) {
+                    // interrupted by close(), keep waiting for the deadline
                 }
-                long sleepTime = appender.getConfig().reconnectTimeMillis + 100;
-                debug("Append failed! Will retry after " + sleepTime + "ms");
-                Thread.sleep(sleepTime);
             }
-            while (!closed);
+            writerExecutor.shutdownNow();
+            List<DiscardingJdbcAppender> idle = new ArrayList<DiscardingJdbcAppender>();
+            synchronized (idleAppenders) {
+                batchWritersStopped = true;
+                idleAppenders.drainTo(idle);
+            }
+            for (DiscardingJdbcAppender a : idle)
+                a.close();
         }
     }
 
+    /*
+     * Write the batch, retrying whatever was not written until it succeeds or the appender is closed.
+     * While the database is down the batch goes to the fallback appenders, if there are any, so the
+     * queue keeps draining; reconnecting happens in the background (see ConnectionPool).
+     */
+    private void writeBatch(final DiscardingJdbcAppender appender, final List<LoggingEvent> batch) throws InterruptedException {
+        do {
+            int count = writeAttempts.incrementAndGet();
+            if (closed && reservations.get() > 0 && count % 1000 == 0) {
+                info("Clearing queue. Remaining=" + reservations.get());
+            }
+            final int size = batch.size();
+            final long rejectedBefore = appender.getRejectedCount();
+            final long start = System.nanoTime();
+            int written = appender.appendEvents(batch);
+            if (batchSizer != null && written == size)
+                batchSizer.update(written, System.nanoTime() - start, reservations.get());
+            // rows the database rejected were skipped over, and count as discarded
+            final int rejected = (int) (appender.getRejectedCount() - rejectedBefore);
+            if (rejected > 0)
+                discarded.addAndGet(rejected);
+            if (metrics != null && written > 0)
+                metrics.committed(batch.subList(0, written), rejected);
+            if (written > 0)
+                consumed(batch.subList(0, written));
+            batch.subList(0, written).clear();
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (appender.isDatabaseDown() && fallback(batch)) {
+                consumed(batch);
+                batch.clear();
+                break;
+            }
+            // with a fallback, check back soon in case the database turns out to be down
+            long waitTime = hasFallback ? FALLBACK_CHECK_MILLIS : appender.getConfig().reconnectTimeMillis + 100;
+            debug("Append failed! Will retry when reconnected or after " + waitTime + "ms");
+            appender.awaitConnection(waitTime);
+        }
+        while (!closed);
+    }
+
     /*
      * Send debugging information to the console if system property "log4jq.debug" is set.
      */
@@ -110,14 +367,39 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
             "Queue size exceeds your configured warning threshold";
 
     final static String DISCARD_WARNING =
-            "Discarding message! Log queue is full (consider increasing maxElements)";
+            "Discarding message! Log queue is full (consider increasing maxElements or maxQueueBytes)";
 
     final static String SHUTDOWN_OK =
             "Thread exiting - no messages were lost";
 
+    final static String SHUTDOWN_SPILLED =
+            "%d messages remain in the spill journal and will be written after restart";
+
     final static String SHUTDOWN_DISCARD =
             "Thread exiting, %d messages still in queue will be lost! (consider increasing gracefulShutdownTimeMillis)";
 
+    /*
+     * How many queued events the dropOldest policy will discard to make room for a new one.
+     */
+    private final static int MAX_OVERFLOW_RETRIES = 3;
+
+    /*
+     * How long a producer blocked by the "block" overflow policy waits between retries.
+     */
+    private final static long BLOCK_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    final static String QUEUE_DEQUE = "deque";
+
+    final static String QUEUE_RING_BUFFER = "ringBuffer";
+
+    final static String QUEUE_PRIORITY = "priority";
+
+    final static String QUEUE_STRIPED = "striped";
+
+    final static long FALLBACK_CHECK_MILLIS = 100;
+
+    final static String DEFAULT_FALLBACK_PATTERN = "%d{ISO8601} %-5p [%t] %c %x - %m%n";
+
     final static String REPORT_WARNING =
             "Discarded log messages will not be reported (see errorReportIntervalMillis)";
 
@@ -127,11 +409,70 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
      */
     private boolean locationInfo = true;
 
+    /**
+     * Config Option. Capture location information with CallerLocator.
+     */
+    private boolean fastLocationInfo = false;
+
     /**
      * Config Option. Max messages to hold in memory.
      */
     private int maxElements = 1000000;
 
+    /**
+     * Config Option. Max estimated bytes of heap retained by queued messages
+     * (see ByteBoundedEventQueue). Zero or negative for no limit.
+     */
+    private long maxQueueBytes = 0;
+
+    /**
+     * Config Option. Directory for the disk spill journal (see SpillJournal).
+     * Messages overflow to disk instead of being discarded when set.
+     */
+    private String spillDirectory;
+
+    /**
+     * Config Option. Number of messages in the memory queue at which new messages
+     * are spilled to disk. Zero or negative means when the memory queue is full.
+     */
+    private int spillHighWaterMark = 0;
+
+    /**
+     * Config Option. Size of each memory-mapped journal segment file.
+     */
+    private int spillSegmentBytes = 64 * 1024 * 1024;
+
+    /**
+     * Config Option. Max total size of the journal segment files.
+     */
+    private long maxSpillBytes = 1024L * 1024 * 1024;
+
+    /**
+     * Config Option. What to do with a new message when the queue is full
+     * (see OverflowPolicy).
+     */
+    private String overflowPolicyName = OverflowPolicy.DROP_NEWEST.configName();
+
+    /**
+     * Config Option. With the "block" overflow policy, the longest time an
+     * application thread will wait for room in the queue.
+     */
+    private long overflowBlockMillis = 1000;
+
+    /**
+     * Config Option. With the "sample" overflow policy, the queue fill percentage
+     * above which INFO and lower messages are sampled.
+     */
+    private int sampleFillPercent = 80;
+
+    /**
+     * Config Option. With the "sample" overflow policy, the percentage of INFO
+     * and lower messages kept once sampling starts.
+     */
+    private int samplePercent = 10;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
     /**
      * Config Option. Report at most 1 discarded event within this interval.
      * Set to any negative value to disable error reporting.
@@ -149,16 +490,190 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
      */
     private long gracefulShutdownTimeMillis = 60000;
 
-    private BlockingDeque<LoggingEvent> queue;
-    private int reservations;
-    private int discarded;
-    private int submitted;
-    private LogWriterThread writerThread;
-    private long lastReportedTimeMillis;
+    /**
+     * Config Option. Max messages to insert in one JDBC batch (transaction).
+     * The default of 1 inserts each message individually with autocommit.
+     */
+    private int batchSize = 1;
+
+    /**
+     * Config Option. Max time the writer will wait for more messages to arrive
+     * before sending a partially filled batch. Zero sends whatever is queued immediately.
+     */
+    private long maxBatchLatencyMillis = 0;
+
+    /**
+     * Config Option. Adapt the number of messages per batch between minBatchSize and batchSize
+     * to the load and the measured commit latency (see BatchSizer), rather than always waiting
+     * for batchSize messages.
+     */
+    private boolean adaptiveBatchSize = false;
+
+    /**
+     * Config Option. With adaptiveBatchSize, the smallest batch size.
+     */
+    private int minBatchSize = 1;
+
+    /**
+     * Config Option. With adaptiveBatchSize, batches taking longer than this to insert
+     * and commit halve the batch size.
+     */
+    private long batchLatencyTargetMillis = 200;
+
+    /**
+     * Config Option. Render the SQL parameters on the application thread and queue only
+     * the rendered strings (see RenderedLoggingEvent) instead of the full LoggingEvent.
+     * Bounds the memory held per queued message (e.g. no MDC copy or Throwable) and
+     * moves the formatting work off the writer thread.
+     */
+    private boolean preRenderParams = false;
+
+    /**
+     * Config Option. Collapse identical events logged within this many milliseconds
+     * into one queued event with a repeat count, 0 to disable (see EventCoalescer).
+     */
+    private long coalesceWindowMillis = 0;
+
+    /**
+     * Config Option. Number of writer threads draining the queue. Each writer
+     * has its own DiscardingJdbcAppender (and so its own connection and reconnect throttling).
+     * Note that with more than one writer, messages may be inserted out of order.
+     */
+    private int writerThreads = 1;
+
+    /**
+     * Config Option. Instead of writerThreads, have a single writer form batches and write
+     * each on its own virtual thread (JDK 21 and later; a pool of maxConcurrentInserts platform
+     * threads otherwise), so blocking JDBC calls don't each need a dedicated platform thread.
+     * As with several writers, messages may be inserted out of order.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Config Option. With virtualThreads, the most batches written at once. Each concurrent
+     * insert has its own DiscardingJdbcAppender and connection, all taken from one shared
+     * connection pool (so connections are only opened as the concurrency needs them).
+     */
+    private int maxConcurrentInserts = 16;
+
+    /**
+     * Config Option. The queue implementation: "deque" (a LinkedBlockingDeque),
+     * "ringBuffer" (a lock-free preallocated ring buffer), "priority" (see PriorityEventQueue)
+     * or "striped" (see StripedEventQueue).
+     */
+    private String queueType = QUEUE_DEQUE;
+
+    /**
+     * Config Option. With the "priority" queue type, the capacity of the ERROR and above,
+     * WARN, and INFO and below queues. Defaults to 10%, 10% and 80% of maxElements.
+     */
+    private String priorityCapacities;
+
+    /**
+     * Config Option. With the "priority" queue type, how many messages the writer
+     * takes from each of the ERROR and above, WARN, and INFO and below queues per round.
+     */
+    private String priorityWeights = "8,4,1";
+
+    /**
+     * Config Option. With the "striped" queue type, the number of ring buffers producer
+     * threads are spread over (rounded up to a power of two). Zero for the number of processors.
+     */
+    private int queueStripes = 0;
+
+    /**
+     * Config Option. With the "striped" queue type, have the writer return events in
+     * timestamp order across stripes rather than draining them round robin.
+     */
+    private boolean stripeMerge = false;
+
+    /**
+     * Config Option. Bypass the synchronized AppenderSkeleton.doAppend() so
+     * application threads do not contend on this appender's monitor.
+     */
+    private boolean lockFreeAppend = false;
+
+    /**
+     * Config Option. How the writer thread waits for events to arrive:
+     * "blocking", "sleeping", "yielding" or "busySpin" (see WaitStrategy).
+     */
+    private String waitStrategyName = WaitStrategy.BLOCKING;
+
+    /**
+     * Config Option. The longest back-off sleep used by the "sleeping" wait strategy.
+     */
+    private long maxWaitSleepMillis = 1;
+
+    /**
+     * Config Option. A file to write messages to while the database is down (in addition
+     * to any appenders attached to this one, e.g. with appender-ref in XML configuration).
+     */
+    private String fallbackFile;
+
+    /**
+     * Config Option. Layout pattern for fallbackFile.
+     */
+    private String fallbackPattern = DEFAULT_FALLBACK_PATTERN;
+
+    /**
+     * Config Option. Register the metrics as a JMX MBean.
+     */
+    private boolean jmx = false;
+
+    /**
+     * Config Option. Class name of a MetricsListener to receive the metrics periodically.
+     */
+    private String metricsListener;
+
+    /**
+     * Config Option. How often to sample the rates and notify the metrics listener.
+     */
+    private long metricsIntervalMillis = 10000;
+
+    /**
+     * Config Option. Time the phases of append() in each application thread.
+     */
+    private boolean producerTiming = false;
+
+    private WaitStrategy waitStrategy;
+    private EventQueue queue;
+    private int capacity; // of the memory queue (maxElements, or the sum of priorityCapacities)
+    private ByteBoundedEventQueue byteBoundedQueue;
+    private SpillingEventQueue spillQueue;
+    private final AtomicInteger liveWriters = new AtomicInteger();
+    private final AtomicInteger reservations = new AtomicInteger();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicInteger fallenBack = new AtomicInteger();
+    private final AppenderAttachableImpl fallbackAppenders = new AppenderAttachableImpl();
+    private volatile boolean hasFallback;
+    private final DiscardingJdbcAppender jdbcAppender;
+    private final List<LogWriterThread> writers = new ArrayList<LogWriterThread>();
+    private final AtomicInteger writeAttempts = new AtomicInteger();
+    private BatchSizer batchSizer;
+    private ExecutorService writerExecutor;
+    private BlockingQueue<DiscardingJdbcAppender> idleAppenders;
+    private boolean batchWritersStopped; // guarded by idleAppenders
+    private volatile long shutdownDeadline = Long.MAX_VALUE;
+    private volatile long lastReportedTimeMillis;
+    private AppenderMetrics metrics;
+    private ProducerTiming timing;
+    private CallerLocator locator;
+    private EventCoalescer coalescer;
+    private ObjectName mbeanName;
+    private Timer metricsTimer;
 
     public AsyncJdbcAppender() {
-        DiscardingJdbcAppender appender = new DiscardingJdbcAppender();
-        writerThread = new LogWriterThread(appender);
+        this(new DiscardingJdbcAppender());
+    }
+
+    /*
+     * Write through the given (not yet activated) appender, e.g. a stub in tests.
+     */
+    AsyncJdbcAppender(DiscardingJdbcAppender jdbcAppender) {
+        this.jdbcAppender = jdbcAppender;
     }
 
     @Override
@@ -175,27 +690,402 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
         if (errorReportIntervalMillis < 0)
             warn(REPORT_WARNING);
 
-        queue = new LinkedBlockingDeque<LoggingEvent>(maxElements);
+        queue = createQueue();
+        locator = locationInfo && fastLocationInfo ? new CallerLocator() : null;
+        coalescer = null;
+        if (coalesceWindowMillis > 0) {
+            if (preRenderParams)
+                warn("coalesceWindowMillis is ignored with preRenderParams (the params are rendered before repeats are counted)");
+            else
+                coalescer = new EventCoalescer(coalesceWindowMillis);
+        }
+        overflowPolicy = OverflowPolicy.forName(overflowPolicyName);
+        if (overflowPolicy == null) {
+            warn("Unknown overflowPolicy " + overflowPolicyName + " (using " + OverflowPolicy.DROP_NEWEST.configName() + ")");
+            overflowPolicy = OverflowPolicy.DROP_NEWEST;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_LOWER_LEVEL && QUEUE_PRIORITY.equalsIgnoreCase(queueType))
+            info("overflowPolicy " + overflowPolicyName + " with queueType " + queueType
+                    + " only evicts within the level group (ERROR+, WARN, INFO-) of the new event, as each has its own capacity");
+        if (overflowPolicy == OverflowPolicy.DROP_LOWER_LEVEL && !queue.canEvict())
+            warn("overflowPolicy " + overflowPolicyName + " cannot remove queued events from queueType " + queueType
+                    + " (new events will be discarded when the queue is full)");
+        waitStrategy = WaitStrategy.forName(waitStrategyName, maxWaitSleepMillis);
+        if (waitStrategy == null) {
+            warn("Unknown waitStrategy " + waitStrategyName + " (using " + WaitStrategy.BLOCKING + ")");
+            waitStrategy = new WaitStrategy.Blocking();
+        }
+
+        if (fallbackFile != null) {
+            try {
+                FileAppender file = new FileAppender(new EnhancedPatternLayout(fallbackPattern), fallbackFile, true);
+                file.setName(getName() + "-fallback");
+                addAppender(file);
+            } catch (IOException e) {
+                warn("Could not open fallbackFile " + fallbackFile + ": " + e);
+            }
+        }
+        synchronized (fallbackAppenders) {
+            hasFallback = fallbackAppenders.getAllAppenders() != null;
+        }
 
-        writerThread.appender.activateOptions();
-        if (writerThread.appender.isConfiguredSuccessfully())
-            writerThread.start();
-        else
+        // always connect in the background so the writers never block on a reconnect
+        if (jdbcAppender.getPendingConfig().poolSize < 1) {
+            info("Using poolSize 1 rather than " + jdbcAppender.getPendingConfig().poolSize
+                    + ": AsyncJdbcAppender always reconnects through the background connection pool");
+            jdbcAppender.setPoolSize(1);
+        }
+        // named for the writer using it, e.g. in the connection pool thread name
+        jdbcAppender.setName(getName() + "-0");
+        jdbcAppender.activateOptions();
+        if (!jdbcAppender.isConfiguredSuccessfully()) {
             queue = null;
+            return;
+        }
+        if (adaptiveBatchSize && batchSize > 1)
+            batchSizer = new BatchSizer(Math.max(1, Math.min(minBatchSize, batchSize)), batchSize,
+                    maxBatchLatencyMillis, batchLatencyTargetMillis);
+        if (producerTiming)
+            timing = new ProducerTiming();
+        if (jmx || metricsListener != null || producerTiming) {
+            metrics = new AppenderMetrics(this, timing);
+            jdbcAppender.setMetrics(metrics);
+            startMetrics();
+        }
+        if (virtualThreads) {
+            startBatchWriters();
+            writers.add(new LogWriterThread(jdbcAppender, 0));
+            liveWriters.set(1);
+            writers.get(0).start();
+            return;
+        }
+        writers.add(new LogWriterThread(jdbcAppender, 0));
+        for (int i = 1; i < writerThreads; i++) {
+            DiscardingJdbcAppender appender = jdbcAppender.copy();
+            appender.setName(getName() + "-" + i);
+            appender.setMetrics(metrics);
+            appender.activateOptions();
+            writers.add(new LogWriterThread(appender, i));
+        }
+        liveWriters.set(writers.size());
+        for (LogWriterThread writer : writers)
+            writer.start();
+    }
+
+    /*
+     * Create the appenders (sharing the connection pool of jdbcAppender) and executor for writing
+     * batches on virtual threads.
+     */
+    private void startBatchWriters() {
+        if (writerThreads > 1)
+            warn("writerThreads is ignored with virtualThreads (see maxConcurrentInserts)");
+        int n = Math.max(1, maxConcurrentInserts);
+        idleAppenders = new ArrayBlockingQueue<DiscardingJdbcAppender>(n);
+        idleAppenders.add(jdbcAppender);
+        for (int i = 1; i < n; i++) {
+            DiscardingJdbcAppender appender = jdbcAppender.copySharingPool();
+            appender.setName(getName() + "-" + i);
+            appender.setMetrics(metrics);
+            appender.activateOptions();
+            idleAppenders.add(appender);
+        }
+        writerExecutor = WriterExecutors.newVirtualThreadPerTaskExecutor("log4jq-batch-");
+        if (writerExecutor == null) {
+            warn("Virtual threads need Java 21 or later (using " + n + " platform threads)");
+            writerExecutor = WriterExecutors.newFixedThreadPool("log4jq-batch-", n);
+        }
     }
 
     @Override
     public synchronized void close() {
+        if (!this.closed) {
+            shutdownDeadline = System.currentTimeMillis() + gracefulShutdownTimeMillis;
+            debug("Will exit at: " + shutdownDeadline);
+        }
         this.closed = true; // set Log4J framework superclass flag
-        if (writerThread != null) {
-            debug("calling interrupt on writer " + writerThread.getName());
-            writerThread.interrupt();
+        for (LogWriterThread writer : writers) {
+            debug("calling interrupt on writer " + writer.getName());
+            writer.interrupt();
+        }
+        writers.clear();
+        stopMetrics();
+    }
+
+    private void startMetrics() {
+        if (jmx) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("org.exaspace.log4jq:type=AsyncJdbcAppender,name=" +
+                        ObjectName.quote(String.valueOf(getName())));
+                server.registerMBean(metrics, name);
+                mbeanName = name;
+            } catch (JMException e) {
+                warn("Could not register metrics MBean: " + e);
+            }
+        }
+        MetricsListener listener = null;
+        if (metricsListener != null) {
+            try {
+                listener = (MetricsListener) Class.forName(metricsListener).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                warn("Could not create metricsListener " + metricsListener + ": " + e);
+            }
+        }
+        final MetricsListener l = listener;
+        metricsTimer = new Timer("log4jq-metrics", true);
+        metricsTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                metrics.sample();
+                if (l != null) {
+                    try {
+                        l.onMetrics(getName(), metrics);
+                    } catch (RuntimeException e) {
+                        LogLog.warn("metricsListener failed", e);
+                    }
+                }
+            }
+        }, metricsIntervalMillis, metricsIntervalMillis);
+    }
+
+    private void stopMetrics() {
+        if (metricsTimer != null) {
+            metricsTimer.cancel();
+            metricsTimer = null;
         }
-        writerThread = null;
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                // already gone
+            }
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * The appender's metrics, or null unless jmx, metricsListener or producerTiming is configured.
+     */
+    public AppenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    int queueDepth() {
+        return reservations.get();
+    }
+
+    long submittedCount() {
+        return submitted.get();
+    }
+
+    long discardedCount() {
+        return discarded.get();
+    }
+
+    long sampledCount() {
+        return sampled.get();
+    }
+
+    long coalescedCount() {
+        return coalesced.get();
     }
 
     /*
-     * AppenderSkeleton has already synchronized on "this" for the append.
+     * The most events the writer takes for the next batch.
+     */
+    int maxBatch() {
+        return batchSizer == null ? batchSize : batchSizer.size();
+    }
+
+    /*
+     * The events have left the appender for good (written, rejected, written to the fallback
+     * or discarded), so any that came from the spill journal need not be replayed after a restart.
+     */
+    private void consumed(List<LoggingEvent> events) {
+        if (spillQueue != null)
+            spillQueue.ack(events);
+    }
+
+    /*
+     * Send the events to the fallback appenders.
+     * Returns false if there are none.
+     */
+    private boolean fallback(final List<LoggingEvent> events) {
+        synchronized (fallbackAppenders) {
+            if (!hasFallback)
+                return false;
+            for (LoggingEvent event : events) {
+                if (event instanceof RenderedLoggingEvent)
+                    event = ((RenderedLoggingEvent) event).withParamsAsMessage();
+                fallbackAppenders.appendLoopOnAppenders(event);
+            }
+        }
+        fallenBack.addAndGet(events.size());
+        return true;
+    }
+
+    @Override
+    public void addAppender(Appender appender) {
+        synchronized (fallbackAppenders) {
+            fallbackAppenders.addAppender(appender);
+            hasFallback = true;
+        }
+    }
+
+    @Override
+    public Enumeration getAllAppenders() {
+        synchronized (fallbackAppenders) {
+            return fallbackAppenders.getAllAppenders();
+        }
+    }
+
+    @Override
+    public Appender getAppender(String name) {
+        synchronized (fallbackAppenders) {
+            return fallbackAppenders.getAppender(name);
+        }
+    }
+
+    @Override
+    public boolean isAttached(Appender appender) {
+        synchronized (fallbackAppenders) {
+            return fallbackAppenders.isAttached(appender);
+        }
+    }
+
+    @Override
+    public void removeAllAppenders() {
+        synchronized (fallbackAppenders) {
+            fallbackAppenders.removeAllAppenders();
+            hasFallback = false;
+        }
+    }
+
+    @Override
+    public void removeAppender(Appender appender) {
+        synchronized (fallbackAppenders) {
+            fallbackAppenders.removeAppender(appender);
+            hasFallback = fallbackAppenders.getAllAppenders() != null;
+        }
+    }
+
+    @Override
+    public void removeAppender(String name) {
+        synchronized (fallbackAppenders) {
+            fallbackAppenders.removeAppender(name);
+            hasFallback = fallbackAppenders.getAllAppenders() != null;
+        }
+    }
+
+    private EventQueue createQueue() {
+        EventQueue q;
+        capacity = maxElements;
+        if (QUEUE_RING_BUFFER.equalsIgnoreCase(queueType)) {
+            q = new RingBufferEventQueue(maxElements);
+        } else if (QUEUE_PRIORITY.equalsIgnoreCase(queueType)) {
+            int[] defaultCapacities = {
+                    Math.max(1, maxElements / 10), Math.max(1, maxElements / 10), Math.max(1, maxElements * 8 / 10)};
+            int[] capacities = parseInts("priorityCapacities", priorityCapacities, defaultCapacities);
+            q = new PriorityEventQueue(capacities, parseInts("priorityWeights", priorityWeights, new int[]{8, 4, 1}));
+            capacity = 0;
+            for (int c : capacities)
+                capacity += c;
+        } else if (QUEUE_STRIPED.equalsIgnoreCase(queueType)) {
+            int stripes = queueStripes > 0 ? queueStripes : Runtime.getRuntime().availableProcessors();
+            q = new StripedEventQueue(stripes, maxElements, stripeMerge);
+        } else {
+            if (!QUEUE_DEQUE.equalsIgnoreCase(queueType))
+                warn("Unknown queueType " + queueType + " (using " + QUEUE_DEQUE + ")");
+            q = new DequeEventQueue(maxElements);
+        }
+        if (maxQueueBytes > 0) {
+            byteBoundedQueue = new ByteBoundedEventQueue(q, maxQueueBytes);
+            q = byteBoundedQueue;
+        }
+        if (spillDirectory != null && spillDirectory.length() > 0) {
+            try {
+                SpillJournal journal = new SpillJournal(new File(spillDirectory), spillSegmentBytes, maxSpillBytes);
+                int highWaterMark = spillHighWaterMark > 0 ? spillHighWaterMark : maxElements;
+                spillQueue = new SpillingEventQueue(q, journal, highWaterMark);
+                reservations.addAndGet(journal.size());
+                if (journal.size() > 0)
+                    info("Recovered " + journal.size() + " messages from spill journal in " + spillDirectory);
+                q = spillQueue;
+            } catch (IOException e) {
+                error("Could not open spill journal in " + spillDirectory + " (spilling disabled): " + e.getMessage());
+            }
+        }
+        return q;
+    }
+
+    /*
+     * Parse a comma separated list of PriorityEventQueue.GROUPS positive ints, or return the default.
+     */
+    private int[] parseInts(String option, String value, int[] defaults) {
+        if (value == null)
+            return defaults;
+        String[] parts = value.trim().split("\\s*,\\s*");
+        int[] ret = new int[PriorityEventQueue.GROUPS];
+        try {
+            if (parts.length != ret.length)
+                throw new NumberFormatException();
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = Integer.parseInt(parts[i]);
+                if (ret[i] < 1)
+                    throw new NumberFormatException();
+            }
+        } catch (NumberFormatException e) {
+            warn("Invalid " + option + " " + value + " (expected " + ret.length + " positive numbers)");
+            return defaults;
+        }
+        return ret;
+    }
+
+    /*
+     * Unless lockFreeAppend is set, delegate to the synchronized AppenderSkeleton.doAppend().
+     * Otherwise apply the same threshold and filter checks without taking the monitor.
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        if (!lockFreeAppend) {
+            final ProducerTiming.Cell cell = timing == null ? null : timing.current();
+            if (cell == null) {
+                super.doAppend(event);
+                return;
+            }
+            cell.enter();
+            try {
+                super.doAppend(event);
+            } finally {
+                cell.leave(); // doAppend() may return without calling append()
+            }
+            return;
+        }
+        if (this.closed) {
+            LogLog.error("Attempted to append to closed appender named [" + name + "].");
+            return;
+        }
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        Filter f = getFirstFilter();
+        FILTER_LOOP:
+        while (f != null) {
+            switch (f.decide(event)) {
+                case Filter.DENY:
+                    return;
+                case Filter.ACCEPT:
+                    break FILTER_LOOP;
+                default:
+                    f = f.getNext();
+            }
+        }
+        append(event);
+    }
+
+    /*
+     * Called with the appender's monitor held unless lockFreeAppend is set,
+     * so everything here must be safe to call concurrently.
      */
     @Override
     public void append(LoggingEvent event) {
@@ -203,47 +1093,169 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
             error("Attempted append to closed appender.");
             return;
         }
-        ++submitted;
-        // ensure thread specific fields are correctly populated
-        event.getNDC();
-        event.getThreadName();
-        event.getMDCCopy();
-        if (locationInfo) {
-            event.getLocationInformation();
+        final long n = submitted.incrementAndGet();
+        final ProducerTiming.Cell cell = timing == null ? null : timing.current();
+        long t = cell == null ? 0 : cell.start();
+        if (locator != null) {
+            event = locator.withLocation(event);
+            if (cell != null)
+                t = cell.lap(ProducerTiming.LOCATION, t);
         }
-        boolean added = queue.offer(event);
-        if (added) {
-            ++reservations;
+        if (preRenderParams) {
+            event = new RenderedLoggingEvent(event, jdbcAppender.render(event));
+            if (cell != null)
+                t = cell.lap(ProducerTiming.RENDER, t);
         } else {
-            ++discarded;
+            // ensure thread specific fields are correctly populated
+            event.getNDC();
+            event.getThreadName();
+            event.getMDCCopy();
+            if (cell != null)
+                t = cell.lap(ProducerTiming.RENDER, t);
+            if (locationInfo && locator == null) {
+                event.getLocationInformation();
+                if (cell != null)
+                    t = cell.lap(ProducerTiming.LOCATION, t);
+            }
+        }
+        CoalescedLoggingEvent first = null;
+        if (coalescer != null) {
+            first = coalescer.coalesce(event);
+            if (first == null) {
+                coalesced.incrementAndGet();
+                return;
+            }
+            event = first;
         }
-        final boolean alert = reservations > warningThreshold;
+        if (overflowPolicy == OverflowPolicy.SAMPLE && sampledOut(event)) {
+            sampled.incrementAndGet();
+            if (first != null)
+                coalescer.forget(first);
+            return;
+        }
+        final int depth = reservations.incrementAndGet();
+        if (metrics != null)
+            metrics.queueDepth(depth);
+        final int dropped = enqueue(event);
+        if (cell != null)
+            cell.lap(ProducerTiming.ENQUEUE, t);
+        final boolean alert = reservations.get() > warningThreshold;
         if (errorReportIntervalMillis >= 0 &&
-                (!added || alert)) {
+                (dropped > 0 || alert)) {
             long now = System.currentTimeMillis();
             long due = lastReportedTimeMillis + errorReportIntervalMillis;
             if (now > due) {
                 lastReportedTimeMillis = now;
-                if (!added)
+                if (dropped > 0)
                     warn(DISCARD_WARNING);
                 else if (alert)
                     warn(THRESHOLD_WARNING);
             }
         }
-        if (DEBUG && submitted % 50 == 0)
+        if (DEBUG && n % 50 == 0)
             debug(getStateInfo());
     }
 
+    /*
+     * Offer the event to the queue, applying the overflow policy if the queue is full.
+     * The caller has already reserved a place for the event.
+     * Returns the number of events discarded (the new event and/or older queued events).
+     */
+    private int enqueue(LoggingEvent event) {
+        int dropped = 0;
+        boolean added = queue.offer(event);
+        if (!added) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    for (int i = 0; i < MAX_OVERFLOW_RETRIES && !added; i++) {
+                        LoggingEvent oldest = queue.evictOldest(event);
+                        if (oldest != null) {
+                            forget(oldest);
+                            consumed(Collections.singletonList(oldest));
+                            reservations.decrementAndGet();
+                            dropped++;
+                        }
+                        added = queue.offer(event);
+                    }
+                    break;
+                case DROP_LOWER_LEVEL:
+                    LoggingEvent evicted = queue.evict(event.getLevel());
+                    if (evicted != null) {
+                        forget(evicted);
+                        reservations.decrementAndGet();
+                        dropped++;
+                        added = queue.offer(event);
+                    }
+                    break;
+                case BLOCK:
+                    added = offerWithTimeout(event);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!added) {
+            forget(event);
+            reservations.decrementAndGet();
+            dropped++;
+        }
+        if (dropped > 0)
+            discarded.addAndGet(dropped);
+        return dropped;
+    }
+
+    /*
+     * Stop counting repeats into a coalesced event which has been dropped.
+     */
+    private void forget(LoggingEvent event) {
+        if (event instanceof CoalescedLoggingEvent)
+            coalescer.forget((CoalescedLoggingEvent) event);
+    }
+
+    /*
+     * Retry the offer until there is room, the block timeout expires, or the
+     * appender is closed or the calling thread interrupted.
+     */
+    private boolean offerWithTimeout(LoggingEvent event) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(overflowBlockMillis);
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(BLOCK_RETRY_NANOS);
+            if (queue.offer(event))
+                return true;
+            if (System.nanoTime() - deadline >= 0)
+                break;
+        }
+        return false;
+    }
+
+    /*
+     * With the sample policy, once the queue is over sampleFillPercent full,
+     * INFO and lower events are kept with a probability of samplePercent.
+     */
+    private boolean sampledOut(LoggingEvent event) {
+        return event.getLevel().toInt() <= Level.INFO_INT
+                && reservations.get() * 100L >= (long) sampleFillPercent * capacity
+                && ThreadLocalRandom.current().nextInt(100) >= samplePercent;
+    }
+
     public String getStateInfo() {
-        final int avail = maxElements - reservations;
-        final float percentFull = (int) (100 * reservations / (float) maxElements);
+        final int size = reservations.get();
+        final int avail = capacity - size;
+        final float percentFull = (int) (100 * size / (float) capacity);
         return
-                " size=" + reservations +
+                " size=" + size +
                         " (" + percentFull + "% full)" +
                         " discards=" + discarded +
+                        (overflowPolicy == OverflowPolicy.SAMPLE ? " sampled=" + sampled : "") +
+                        (coalescer == null ? "" : " coalesced=" + coalesced) +
                         " submitted=" + submitted +
                         " avail=" + avail +
-                        " capacity=" + maxElements +
+                        " capacity=" + capacity +
+                        (byteBoundedQueue == null ? "" :
+                                " bytes=" + byteBoundedQueue.bytes() +
+                                " maxBytes=" + byteBoundedQueue.maxBytes()) +
+                        (spillQueue == null ? "" : " spilled=" + spillQueue.spilled()) +
+                        (fallenBack.get() == 0 ? "" : " fallback=" + fallenBack) +
                         " freeVmBytes=" +
                         Runtime.getRuntime().freeMemory();
     }
@@ -269,11 +1281,61 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
         this.locationInfo = locationInfo;
     }
 
+    // config option
+    public void setFastLocationInfo(boolean fastLocationInfo) {
+        this.fastLocationInfo = fastLocationInfo;
+    }
+
     // config option
     public void setMaxElements(int n) {
         this.maxElements = n;
     }
 
+    // config option
+    public void setMaxQueueBytes(long n) {
+        this.maxQueueBytes = n;
+    }
+
+    // config option
+    public void setSpillDirectory(String dir) {
+        this.spillDirectory = dir;
+    }
+
+    // config option
+    public void setSpillHighWaterMark(int n) {
+        this.spillHighWaterMark = n;
+    }
+
+    // config option
+    public void setSpillSegmentBytes(int n) {
+        this.spillSegmentBytes = n;
+    }
+
+    // config option
+    public void setMaxSpillBytes(long n) {
+        this.maxSpillBytes = n;
+    }
+
+    // config option
+    public void setOverflowPolicy(String policy) {
+        this.overflowPolicyName = policy;
+    }
+
+    // config option
+    public void setOverflowBlockMillis(long ms) {
+        this.overflowBlockMillis = ms;
+    }
+
+    // config option
+    public void setSampleFillPercent(int percent) {
+        this.sampleFillPercent = percent;
+    }
+
+    // config option
+    public void setSamplePercent(int percent) {
+        this.samplePercent = percent;
+    }
+
     // config option
     public void setWarningThreshold(int warningThreshold) {
         this.warningThreshold = warningThreshold;
@@ -289,44 +1351,224 @@ public class AsyncJdbcAppender extends AppenderSkeleton implements Appender {
         this.gracefulShutdownTimeMillis = ms;
     }
 
+    // config option
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // config option
+    public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    // config option
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    // config option
+    public void setBatchLatencyTargetMillis(long batchLatencyTargetMillis) {
+        this.batchLatencyTargetMillis = batchLatencyTargetMillis;
+    }
+
+    // config option
+    public void setMaxBatchLatencyMillis(long ms) {
+        this.maxBatchLatencyMillis = ms;
+    }
+
+    // config option
+    public void setPreRenderParams(boolean preRenderParams) {
+        this.preRenderParams = preRenderParams;
+    }
+
+    // config option
+    public void setCoalesceWindowMillis(long ms) {
+        this.coalesceWindowMillis = ms;
+    }
+
+    // config option
+    public void setWriterThreads(int n) {
+        this.writerThreads = Math.max(1, n);
+    }
+
+    // config option
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    // config option
+    public void setMaxConcurrentInserts(int maxConcurrentInserts) {
+        this.maxConcurrentInserts = maxConcurrentInserts;
+    }
+
+    // config option
+    public void setQueueType(String queueType) {
+        this.queueType = queueType;
+    }
+
+    // config option
+    public void setPriorityCapacities(String capacities) {
+        this.priorityCapacities = capacities;
+    }
+
+    // config option
+    public void setPriorityWeights(String weights) {
+        this.priorityWeights = weights;
+    }
+
+    // config option
+    public void setQueueStripes(int queueStripes) {
+        this.queueStripes = queueStripes;
+    }
+
+    // config option
+    public void setStripeMerge(boolean stripeMerge) {
+        this.stripeMerge = stripeMerge;
+    }
+
+    // config option
+    public void setLockFreeAppend(boolean lockFreeAppend) {
+        this.lockFreeAppend = lockFreeAppend;
+    }
+
+    // config option
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategyName = waitStrategy;
+    }
+
+    // config option
+    public void setMaxWaitSleepMillis(long ms) {
+        this.maxWaitSleepMillis = ms;
+    }
+
     // delegate configuration setter to the jdbc appender's config
     public void setUrl(String url) {
-        writerThread.appender.setUrl(url);
+        jdbcAppender.setUrl(url);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setUser(String user) {
-        writerThread.appender.setUser(user);
+        jdbcAppender.setUser(user);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setPassword(String password) {
-        writerThread.appender.setPassword(password);
+        jdbcAppender.setPassword(password);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setSql(String sql) {
-        writerThread.appender.setSql(sql);
+        jdbcAppender.setSql(sql);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setSqlParams(String sqlParams) {
-        writerThread.appender.setSqlParams(sqlParams);
+        jdbcAppender.setSqlParams(sqlParams);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setSqlParamTypes(String sqlParamTypes) {
+        jdbcAppender.setSqlParamTypes(sqlParamTypes);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setMaxClobChars(int maxClobChars) {
+        jdbcAppender.setMaxClobChars(maxClobChars);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setSqlParamsSeparator(String sqlParamsSeparator) {
-        writerThread.appender.setSqlParamsSeparator(sqlParamsSeparator);
+        jdbcAppender.setSqlParamsSeparator(sqlParamsSeparator);
+    }
+
+    // config option
+    public void setFallbackFile(String fallbackFile) {
+        this.fallbackFile = fallbackFile;
+    }
+
+    // config option
+    public void setFallbackPattern(String fallbackPattern) {
+        this.fallbackPattern = fallbackPattern;
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setMaxReconnectTimeMillis(int maxReconnectTimeMillis) {
+        jdbcAppender.setMaxReconnectTimeMillis(maxReconnectTimeMillis);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setJndiName(String jndiName) {
+        jdbcAppender.setJndiName(jndiName);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setDataSourceClass(String dataSourceClass) {
+        jdbcAppender.setDataSourceClass(dataSourceClass);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setDataSourceProperties(String dataSourceProperties) {
+        jdbcAppender.setDataSourceProperties(dataSourceProperties);
+    }
+
+    // delegate configuration setter to the jdbc appender's config (at least 1 is used: see activateOptions)
+    public void setPoolSize(int poolSize) {
+        jdbcAppender.setPoolSize(poolSize);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setPoolValidationMillis(int poolValidationMillis) {
+        jdbcAppender.setPoolValidationMillis(poolValidationMillis);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setThrowableCacheSize(int throwableCacheSize) {
+        jdbcAppender.setThrowableCacheSize(throwableCacheSize);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setThrowableSql(String throwableSql) {
+        jdbcAppender.setThrowableSql(throwableSql);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setCopySql(String copySql) {
+        jdbcAppender.setCopySql(copySql);
+    }
+
+    // delegate configuration setter to the jdbc appender's config
+    public void setMultiRowInsertSize(int multiRowInsertSize) {
+        jdbcAppender.setMultiRowInsertSize(multiRowInsertSize);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setDriver(String driver) {
-        writerThread.appender.setDriver(driver);
+        jdbcAppender.setDriver(driver);
     }
 
     // delegate configuration setter to the jdbc appender's config
     public void setReconnectTimeMillis(int reconnectTimeMillis) {
-        writerThread.appender.setReconnectTimeMillis(reconnectTimeMillis);
+        jdbcAppender.setReconnectTimeMillis(reconnectTimeMillis);
+    }
+
+    // config option
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    // config option
+    public void setMetricsListener(String metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    // config option
+    public void setMetricsIntervalMillis(long ms) {
+        this.metricsIntervalMillis = ms;
+    }
+
+    // config option
+    public void setProducerTiming(boolean producerTiming) {
+        this.producerTiming = producerTiming;
     }
 
 }
@@ -0,0 +1,72 @@
+package org.exaspace.log4jq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the writer's batch size (and so how long it waits for a batch to fill) to the
+ * load, within [minSize, maxSize], by additive increase / multiplicative decrease:
+ *
+ * - a batch whose commit took longer than the latency target halves the size, as the
+ *   database is struggling and smaller transactions get messages out sooner;
+ * - a full batch, or one leaving a backlog behind it, grows the size by a step, so a
+ *   sustained load is written in fewer round trips;
+ * - a batch less than half full halves the size, so quiet periods are written promptly.
+ *
+ * The time the writer waits for a batch to fill scales with the size, from zero at
+ * minSize up to maxWaitMillis at maxSize.
+ *
+ * Updates may come from several writers at once.
+ */
+final class BatchSizer {
+
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long maxWaitMillis;
+    private final long targetNanos;
+    private volatile int size;
+
+    BatchSizer(int minSize, int maxSize, long maxWaitMillis, long targetLatencyMillis) {
+        if (minSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("Invalid batch size range " + minSize + ".." + maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = Math.max(1, (maxSize - minSize) / 16);
+        this.maxWaitMillis = maxWaitMillis;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.size = minSize;
+    }
+
+    /**
+     * The number of events to take for the next batch.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * How long to wait for the next batch to fill up.
+     */
+    long waitMillis() {
+        if (maxSize == minSize)
+            return maxWaitMillis;
+        return maxWaitMillis * (size - minSize) / (maxSize - minSize);
+    }
+
+    /**
+     * Record a committed batch.
+     *
+     * @param written events in the batch
+     * @param commitNanos time taken to insert and commit it
+     * @param queueDepth events still queued
+     */
+    synchronized void update(int written, long commitNanos, int queueDepth) {
+        int s = size;
+        if (commitNanos > targetNanos || written < s / 2)
+            s = Math.max(minSize, s / 2);
+        else if (written >= s || queueDepth >= s)
+            s = Math.min(maxSize, s + step);
+        size = s;
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue decorator which bounds the estimated heap retained by queued events
+ * (in addition to the element count bound of the underlying queue).
+ *
+ * The size of each event is estimated from its message, rendered parameters,
+ * NDC, MDC copy and throwable when it is offered, and exactly that estimate is
+ * released when it is removed (so lazily computed fields filled in while the event
+ * is queued cannot make the total drift, and the writer never re-walks stack traces).
+ */
+final class ByteBoundedEventQueue implements EventQueue {
+
+    /*
+     * Rough per-object costs in bytes (64 bit JVM with compressed oops).
+     */
+    static final int EVENT_OVERHEAD = 208; // LoggingEvent plus queue node and size entry
+    static final int STRING_OVERHEAD = 40;
+    static final int MAP_ENTRY_OVERHEAD = 48;
+    static final int LOCATION_SIZE = 200;
+    static final int STACK_FRAME_SIZE = 200; // a rendered "at ..." line
+    static final int MAX_CAUSES = 10;
+
+    private final EventQueue queue;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+
+    /*
+     * The estimate each queued event was counted with (LoggingEvent has identity equality).
+     */
+    private final ConcurrentHashMap<LoggingEvent, Long> sizes = new ConcurrentHashMap<LoggingEvent, Long>();
+
+    ByteBoundedEventQueue(EventQueue queue, long maxBytes) {
+        this.queue = queue;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        final long size = estimate(event);
+        final long total = bytes.addAndGet(size);
+        // always accept an event into an empty queue, however large
+        if (total > maxBytes && total != size) {
+            bytes.addAndGet(-size);
+            return false;
+        }
+        sizes.put(event, size); // before offering, as the writer may take it at once
+        if (!queue.offer(event)) {
+            sizes.remove(event);
+            bytes.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        return release(queue.evict(lowerThan));
+    }
+
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        return release(queue.evictOldest(event));
+    }
+
+    @Override
+    public boolean canEvict() {
+        return queue.canEvict();
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        return release(queue.poll());
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return release(queue.poll(timeout, unit));
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        return release(queue.take());
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        int n = 0;
+        LoggingEvent event;
+        while (n < maxElements && (event = poll()) != null) {
+            c.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Estimated bytes retained by the queued events.
+     */
+    long bytes() {
+        return Math.max(0, bytes.get());
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    private LoggingEvent release(LoggingEvent event) {
+        if (event != null) {
+            Long size = sizes.remove(event);
+            if (size != null)
+                bytes.addAndGet(-size);
+        }
+        return event;
+    }
+
+    /**
+     * Estimate the heap retained by the event once it is queued.
+     */
+    static long estimate(LoggingEvent event) {
+        long size = EVENT_OVERHEAD;
+        if (event instanceof RenderedLoggingEvent) {
+            for (String param : ((RenderedLoggingEvent) event).getParams())
+                size += sizeOf(param);
+            return size;
+        }
+        Object message = event.getMessage();
+        size += message instanceof String ? sizeOf((String) message) : sizeOf(event.getRenderedMessage());
+        size += sizeOf(event.getNDC());
+        Map<?, ?> properties = event.getProperties();
+        for (Map.Entry<?, ?> e : properties.entrySet()) {
+            size += MAP_ENTRY_OVERHEAD + sizeOf(String.valueOf(e.getKey())) + sizeOf(String.valueOf(e.getValue()));
+        }
+        if (event.locationInformationExists())
+            size += LOCATION_SIZE;
+        ThrowableInformation ti = event.getThrowableInformation();
+        if (ti != null) {
+            Throwable t = ti.getThrowable();
+            if (t == null) { // deserialized event: only the rendering is available
+                for (String line : ti.getThrowableStrRep())
+                    size += sizeOf(line);
+            }
+            for (int i = 0; t != null && i < MAX_CAUSES; i++, t = t.getCause()) {
+                size += sizeOf(t.getMessage()) + STACK_FRAME_SIZE * (1 + t.getStackTrace().length);
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(String s) {
+        return s == null ? 0 : STRING_OVERHEAD + 2L * s.length();
+    }
+
+}
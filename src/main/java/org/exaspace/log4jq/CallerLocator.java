@@ -0,0 +1,61 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the location of the application code which made a logging call, faster than
+ * LoggingEvent.getLocationInformation() (which prints and parses the whole stack trace
+ * or reads every frame reflectively).
+ *
+ * Resolved locations are cached by call site, so each logging statement creates its
+ * LocationInfo (and the strings in it) only once.
+ *
+ * On Java 9 and later the multi-release jar replaces this class with one based on StackWalker
+ * (src/main/java9), which walks the stack lazily and stops a few frames past the caller
+ * instead of capturing the whole stack.
+ */
+final class CallerLocator {
+
+    private static final int MAX_CACHED_CALL_SITES = 8192;
+
+    private final ConcurrentHashMap<StackTraceElement, LocationInfo> cache =
+            new ConcurrentHashMap<StackTraceElement, LocationInfo>();
+
+    /**
+     * A copy of the event with the location of its caller filled in.
+     */
+    LoggingEvent withLocation(LoggingEvent event) {
+        return new LoggingEvent(event.fqnOfCategoryClass, event.getLogger(), event.timeStamp, event.getLevel(),
+                event.getMessage(), event.getThreadName(), event.getThrowableInformation(), event.getNDC(),
+                locate(event.fqnOfCategoryClass), event.getProperties());
+    }
+
+    /**
+     * The location of the caller of fqnOfCallerClass, as in log4j:
+     * the frame after the outermost frame of that class.
+     */
+    LocationInfo locate(String fqnOfCallerClass) {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (int i = stack.length - 2; i >= 0; i--) {
+            if (fqnOfCallerClass.equals(stack[i].getClassName()))
+                return resolve(stack[i + 1]);
+        }
+        return LocationInfo.NA_LOCATION_INFO;
+    }
+
+    private LocationInfo resolve(StackTraceElement frame) {
+        LocationInfo info = cache.get(frame);
+        if (info == null) {
+            if (cache.size() >= MAX_CACHED_CALL_SITES)
+                cache.clear();
+            info = new LocationInfo(frame.getFileName(), frame.getClassName(), frame.getMethodName(),
+                    String.valueOf(frame.getLineNumber()));
+            cache.put(frame, info);
+        }
+        return info;
+    }
+
+}
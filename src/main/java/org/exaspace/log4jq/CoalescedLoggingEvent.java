@@ -0,0 +1,71 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A queued event which also stands for identical events logged after it (see EventCoalescer).
+ *
+ * Repeats are counted until the event is sealed (when a writer takes it from the queue, or it is
+ * spilled to disk, or dropped). Sealing sets the properties log4jq.repeatCount and log4jq.lastTimeMillis
+ * (the time of the last repeat), so sqlParams can use %X{log4jq.repeatCount}, and removes the event
+ * from its coalescer's open events.
+ */
+final class CoalescedLoggingEvent extends LoggingEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String REPEAT_COUNT = "log4jq.repeatCount";
+    static final String LAST_TIME_MILLIS = "log4jq.lastTimeMillis";
+
+    private static final long SEALED = -1;
+
+    private final transient EventCoalescer coalescer;
+    final transient Object key;
+    private final transient AtomicLong count = new AtomicLong(1);
+    private transient volatile long lastTimeMillis;
+    private transient boolean sealed;
+
+    CoalescedLoggingEvent(LoggingEvent source, EventCoalescer coalescer, Object key) {
+        super(source.fqnOfCategoryClass, source.getLogger(), source.timeStamp, source.getLevel(),
+                source.getMessage(), source.getThreadName(), source.getThrowableInformation(), source.getNDC(),
+                source.locationInformationExists() ? source.getLocationInformation() : null, source.getProperties());
+        this.coalescer = coalescer;
+        this.key = key;
+        this.lastTimeMillis = source.timeStamp;
+    }
+
+    /**
+     * Count a repeat logged at the given time.
+     *
+     * @return false if the event has been sealed (the repeat needs an event of its own)
+     */
+    boolean repeat(long timeMillis) {
+        long n;
+        do {
+            n = count.get();
+            if (n == SEALED)
+                return false;
+        } while (!count.compareAndSet(n, n + 1));
+        if (timeMillis > lastTimeMillis)
+            lastTimeMillis = timeMillis; // may lose a race with another repeat by a millisecond or so
+        return true;
+    }
+
+    /**
+     * Stop counting repeats and record the count in the event properties.
+     */
+    void seal() {
+        synchronized (this) {
+            if (sealed)
+                return;
+            sealed = true;
+            long n = count.getAndSet(SEALED);
+            setProperty(REPEAT_COUNT, String.valueOf(n));
+            setProperty(LAST_TIME_MILLIS, String.valueOf(lastTimeMillis));
+        }
+        coalescer.sealed(this);
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.helpers.LogLog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of validated, idle database connections kept ready by a background thread.
+ *
+ * Connecting (and the isValid() check) happens only on the pool thread, so take() does not
+ * block once the pool has started: it hands out a warm connection or fails at once if none is ready
+ * (e.g. during an outage, while the pool thread keeps retrying). Only until the first connect attempt
+ * has finished does take() wait for it (up to FIRST_CONNECT_WAIT_MILLIS), so that the first batch
+ * after startup is not failed just because the pool is still warming up. Idle connections are re-validated every validationIntervalMillis.
+ *
+ * After a failed connect the pool retries with exponential backoff from retryMillis up to maxRetryMillis,
+ * each delay randomised between half and all of the backoff so that many clients do not reconnect in step.
+ *
+ * Connections handed out are not returned to the pool: the caller closes them when done
+ * (normally after an error) and the pool replaces them in the background.
+ */
+final class ConnectionPool {
+
+    interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    static final int VALIDATION_TIMEOUT_SECONDS = 10;
+    static final long FIRST_CONNECT_WAIT_MILLIS = 10000;
+
+    private final ConnectionFactory factory;
+    private final int size;
+    private final long validationIntervalMillis;
+    private final long retryMillis;
+    private final long maxRetryMillis;
+    private int failures;
+    private final BlockingQueue<Connection> idle;
+    private final Thread thread;
+    private final Object signal = new Object();
+    private final CountDownLatch firstConnect = new CountDownLatch(1);
+    private boolean refillRequested;
+    private volatile boolean closed;
+    private volatile boolean failing;
+
+    /**
+     * @param size number of idle connections to keep ready
+     * @param retryMillis how long to wait before connecting again after a first failure
+     * @param maxRetryMillis the longest wait between connect attempts
+     */
+    ConnectionPool(String name, ConnectionFactory factory, int size, long validationIntervalMillis,
+                   long retryMillis, long maxRetryMillis) {
+        this.factory = factory;
+        this.size = size;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.retryMillis = Math.max(1, retryMillis);
+        this.maxRetryMillis = Math.max(this.retryMillis, maxRetryMillis);
+        this.idle = new ArrayBlockingQueue<Connection>(size);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, "log4jq-pool-" + name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Take a validated connection from the pool, without waiting unless the first connect is still in progress.
+     *
+     * @throws SQLException if no connection is ready
+     */
+    Connection take() throws SQLException {
+        Connection c = idle.poll();
+        if (c == null && firstConnect.getCount() > 0)
+            c = awaitFirstConnect();
+        synchronized (signal) {
+            refillRequested = true;
+            signal.notifyAll();
+        }
+        if (c == null)
+            throw new SQLException("No validated connection ready in pool" + (failing ? " (database unavailable)" : ""));
+        return c;
+    }
+
+    /**
+     * Take a validated connection, waiting up to the given time for one to be ready.
+     *
+     * @return the connection or null if none was ready in time
+     */
+    Connection take(long timeoutMillis) throws InterruptedException {
+        try {
+            return take();
+        } catch (SQLException e) {
+            return idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Connection awaitFirstConnect() {
+        try {
+            firstConnect.await(FIRST_CONNECT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return idle.poll();
+    }
+
+    /**
+     * True if the last attempt to connect failed (and no connection has been made since).
+     */
+    boolean isFailing() {
+        return failing;
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+
+    void close() {
+        closed = true;
+        firstConnect.countDown();
+        thread.interrupt();
+        closeIdle();
+    }
+
+    private void maintain() {
+        long lastValidation = System.currentTimeMillis();
+        while (!closed) {
+            boolean ok = fill();
+            firstConnect.countDown();
+            if (ok && System.currentTimeMillis() - lastValidation >= validationIntervalMillis) {
+                validateIdle();
+                lastValidation = System.currentTimeMillis();
+                ok = fill();
+            }
+            try {
+                await(ok);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        closeIdle();
+    }
+
+    /*
+     * After a failure wait the whole retry period; otherwise until a connection is taken or it is time to validate.
+     */
+    private void await(boolean ok) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + (ok ? validationIntervalMillis : backoff());
+        synchronized (signal) {
+            long wait;
+            while (!closed && !(ok && refillRequested) && (wait = deadline - System.currentTimeMillis()) > 0)
+                signal.wait(wait);
+            refillRequested = false;
+        }
+    }
+
+    /*
+     * retryMillis doubled for each consecutive failure (up to maxRetryMillis), with jitter.
+     */
+    long backoff() {
+        long base = retryMillis << Math.min(Math.max(0, failures - 1), 30);
+        if (base <= 0 || base > maxRetryMillis)
+            base = maxRetryMillis;
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    private boolean fill() {
+        while (!closed && idle.size() < size) {
+            Connection c = null;
+            try {
+                c = factory.connect();
+                if (!c.isValid(VALIDATION_TIMEOUT_SECONDS))
+                    throw new SQLException("Driver returned an invalid connection");
+            } catch (SQLException e) {
+                close(c);
+                if (!failing)
+                    LogLog.warn("log4jq connection pool could not connect (retrying with backoff up to " + maxRetryMillis + "ms): " + e.getMessage());
+                failures++;
+                failing = true;
+                return false;
+            }
+            if (failing)
+                LogLog.warn("log4jq connection pool reconnected");
+            failing = false;
+            failures = 0;
+            if (!idle.offer(c))
+                close(c);
+            firstConnect.countDown();
+        }
+        return true;
+    }
+
+    private void validateIdle() {
+        for (int i = idle.size(); i > 0 && !closed; i--) {
+            Connection c = idle.poll();
+            if (c == null)
+                return;
+            boolean valid;
+            try {
+                valid = c.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                valid = false;
+            }
+            if (!valid || !idle.offer(c))
+                close(c);
+        }
+    }
+
+    private void closeIdle() {
+        Connection c;
+        while ((c = idle.poll()) != null)
+            close(c);
+    }
+
+    private static void close(Connection c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (SQLException ignored) {}
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default queue engine: a bounded LinkedBlockingDeque (a single lock shared by producers
+ * and the consumer).
+ */
+final class DequeEventQueue implements EventQueue {
+
+    private static final int MAX_EVICTION_SCAN = 10000;
+
+    private final BlockingDeque<LoggingEvent> deque;
+
+    DequeEventQueue(int capacity) {
+        deque = new LinkedBlockingDeque<LoggingEvent>(capacity);
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        return deque.offer(event);
+    }
+
+    /*
+     * Scans at most MAX_EVICTION_SCAN events from the head of the queue.
+     */
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        int scanned = 0;
+        for (Iterator<LoggingEvent> it = deque.iterator(); it.hasNext() && scanned < MAX_EVICTION_SCAN; scanned++) {
+            LoggingEvent event = it.next();
+            if (!event.getLevel().isGreaterOrEqual(lowerThan) && deque.removeFirstOccurrence(event))
+                return event;
+        }
+        return null;
+    }
+
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        return deque.poll();
+    }
+
+    @Override
+    public boolean canEvict() {
+        return true;
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        return deque.poll();
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return deque.poll(timeout, unit);
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        return deque.take();
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        return deque.drainTo(c, maxElements);
+    }
+
+    @Override
+    public int size() {
+        return deque.size();
+    }
+
+}
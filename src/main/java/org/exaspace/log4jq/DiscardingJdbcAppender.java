@@ -2,14 +2,30 @@ package org.exaspace.log4jq;
 
 import org.apache.log4j.Appender;
 import org.apache.log4j.AppenderSkeleton;
-import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.config.PropertySetter;
 import org.apache.log4j.spi.ErrorCode;
 import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 
+import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLDataException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
 
 /**
  *
@@ -17,7 +33,10 @@ import java.sql.SQLException;
  * (defined as any time the JDBC insert throws an exception) and then attempts to reconnect periodically, 
  * at which point logging will continue.
  *
- * The appender connects using DriverManager.getConnection().
+ * The appender connects using DriverManager.getConnection(), or a javax.sql.DataSource looked up in JNDI
+ * (jndiName) or created from a class name (dataSourceClass, configured with dataSourceProperties).
+ * With poolSize > 0 connections are made and validated by a background thread (see ConnectionPool),
+ * so reconnecting never blocks the appending thread on a slow connect.
  *
  * The appender uses a prepared statement.
  *
@@ -32,13 +51,52 @@ import java.sql.SQLException;
  log4j.appender.JDBC_DISC.sql = exec sp_mylogproc ?, ?, ?, ?, ?, ?
  log4j.appender.JDBC_DISC.sqlParams = %F:%L, %p, %t, %x, %m, %throwable
  log4j.appender.JDBC_DISC.sqlParamsSeparator = ,
+ log4j.appender.JDBC_DISC.sqlParamTypes = string, int, string, string, string, clob
+ log4j.appender.JDBC_DISC.maxClobChars = 100000
  log4j.appender.JDBC_DISC.reconnectTimeMillis = 5000
  </pre>
  *
+ * Connecting through a DataSource with a background pool:
+ *
+ <pre>
+ log4j.appender.JDBC_DISC.dataSourceClass = org.postgresql.ds.PGSimpleDataSource
+ log4j.appender.JDBC_DISC.dataSourceProperties = serverName=dbhost;databaseName=logs;user=user;password=secret
+ log4j.appender.JDBC_DISC.poolSize = 2
+ log4j.appender.JDBC_DISC.poolValidationMillis = 30000
+ </pre>
+ *
+ * Writing each distinct stack trace once to a side table, referenced from the log row by its hash
+ * (see ThrowableCache):
+ *
+ <pre>
+ log4j.appender.JDBC_DISC.sql = INSERT INTO applog (LogDate, Priority, Message, TraceHash) VALUES (?, ?, ?, ?)
+ log4j.appender.JDBC_DISC.sqlParams = %d, %p, %m, %throwableHash
+ log4j.appender.JDBC_DISC.throwableSql = INSERT INTO applog_trace (TraceHash, Trace) VALUES (?, ?) ON CONFLICT DO NOTHING
+ log4j.appender.JDBC_DISC.throwableCacheSize = 256
+ </pre>
+ *
+ * For drivers which send each statement of a JDBC batch separately, batches can be written with
+ * multi-row INSERT ... VALUES (...), (...) statements of up to multiRowInsertSize rows, rewritten
+ * from sql (keep rows times params within the database's parameter limit, e.g. 2100 on SQL Server):
+ *
+ <pre>
+ log4j.appender.JDBC_DISC.sql = INSERT INTO applog (LogDate, Priority, Message) VALUES (getDate(), ?, ?)
+ log4j.appender.JDBC_DISC.multiRowInsertSize = 100
+ </pre>
+ *
+ * On PostgreSQL, writing with COPY instead of INSERT (one COPY per batch, columns in sqlParams order,
+ * sql is not needed):
+ *
+ <pre>
+ log4j.appender.JDBC_DISC.copySql = COPY applog (LogDate, Priority, Message) FROM STDIN
+ log4j.appender.JDBC_DISC.sqlParams = %d, %p, %m
+ log4j.appender.JDBC_DISC.sqlParamTypes = timestamp, string, string
+ </pre>
+ *
  */
 public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender {
 
-	protected static class JdbcConfig {
+	protected static class JdbcConfig implements Cloneable {
 		public String url;
 		public String user;
 		public String password;
@@ -62,6 +120,18 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		 * (default is a comma ","). 
 		 */
 		public String sqlParamsSeparator = ",";
+
+		/**
+		 * Optional JDBC type for each of the sqlParams, separated by sqlParamsSeparator:
+		 * string (the default), timestamp, int, long or clob (see ParamBinder).
+		 * Missing or empty entries are bound as strings.
+		 */
+		public String sqlParamTypes;
+
+		/**
+		 * Max characters written to a clob sql param (longer values are truncated), 0 for no limit.
+		 */
+		public int maxClobChars = 1024 * 1024;
 		
 		/**
 		 * Time (ms) within which failed db connection will not be re-attempted.
@@ -69,6 +139,71 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		 * JDBC driver under normal conditions.  
 		 */
 		public int reconnectTimeMillis = 10000;
+
+		/**
+		 * With a connection pool, the longest time between reconnect attempts: the wait
+		 * doubles from reconnectTimeMillis after each consecutive failure, up to this limit.
+		 */
+		public int maxReconnectTimeMillis = 120000;
+
+		/**
+		 * JNDI name of a javax.sql.DataSource to connect with (instead of url and driver).
+		 */
+		public String jndiName;
+
+		/**
+		 * Class name of a javax.sql.DataSource to create and connect with (instead of url and driver).
+		 */
+		public String dataSourceClass;
+
+		/**
+		 * Bean properties for dataSourceClass as name=value pairs separated by semicolons.
+		 */
+		public String dataSourceProperties;
+
+		/**
+		 * Number of validated connections to keep ready in a background pool (0 connects on demand).
+		 */
+		public int poolSize = 0;
+
+		/**
+		 * How often the pool re-validates its idle connections.
+		 */
+		public int poolValidationMillis = 30000;
+
+		/**
+		 * How many distinct %throwable renderings to cache. With 0 (the default) every stack trace
+		 * is rendered, but a clob %throwable param is then printed straight into a buffer of at most
+		 * maxClobChars instead of rendering the whole trace.
+		 */
+		public int throwableCacheSize = 0;
+
+		/**
+		 * Optional SQL with two '?' wildcards (hash, stack trace) to write each distinct stack trace
+		 * once, e.g. to a side table referenced by a %throwableHash column of the log table.
+		 * It should ignore duplicate hashes, which are written again after a restart.
+		 */
+		public String throwableSql;
+
+		/**
+		 * Optional PostgreSQL "COPY table (columns) FROM STDIN" statement to write with instead of sql,
+		 * with a column for each of the sqlParams (see PgCopy).
+		 */
+		public String copySql;
+
+		/**
+		 * Write batches with INSERT statements of up to this many rows, rewritten from sql
+		 * (see MultiRowInsert), instead of a JDBC batch. 0 or 1 to disable.
+		 */
+		public int multiRowInsertSize = 0;
+
+		protected JdbcConfig copy() {
+			try {
+				return (JdbcConfig) clone();
+			} catch (CloneNotSupportedException e) {
+				throw new AssertionError(e);
+			}
+		}
 		
 	}
 
@@ -77,13 +212,38 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
      */
 	private static boolean DEBUG = Boolean.getBoolean("log4jq.debug");
 
+	/*
+	 * How many hashes of written stack traces to remember (per appender) with throwableSql.
+	 */
+	private static final int MAX_WRITTEN_TRACES = 10000;
+
 	private JdbcConfig config;
 	private JdbcConfig pendingConfig;
 	
 	private Connection connection;
 	private PreparedStatement statement;
-	private EnhancedPatternLayout[] layouts;
+	private ParamBinder[] binders;
+	private ThrowableCache throwables;
+	private PreparedStatement traceStatement;
+	private PgCopy copy;
+	private MultiRowInsert multiRowInsert;
+	private final Map<Integer, PreparedStatement> multiRowStatements = new HashMap<Integer, PreparedStatement>();
+	private final Set<String> writtenTraces = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_WRITTEN_TRACES;
+		}
+	});
+	private DataSource dataSource;
+	private ConnectionPool pool;
+	private ConnectionPool sharedPool; // another appender's pool, which this one must not close
 	private long lastFailedConnectTimeMillis;
+	private long lastFailedWriteTimeMillis;
+	private long disconnectedSinceMillis;
+	private AppenderMetrics metrics;
+	private final AtomicLong rejected = new AtomicLong();
 
 	public DiscardingJdbcAppender() {
 		resetState();
@@ -92,6 +252,10 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 	private final void resetState() {
 		closePatterns(); 
 		closeConnection();
+		if (pool != null && pool != sharedPool)
+			pool.close();
+		pool = null;
+		dataSource = null;
 		config = null;
 		pendingConfig = new JdbcConfig();
 		lastFailedConnectTimeMillis = 0;		
@@ -122,11 +286,46 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		try {
 			loadPatterns();
 			loadDriver();
+			loadDataSource();
 		} 
-		catch (ClassNotFoundException e) {
+		catch (ReflectiveOperationException | NamingException e) {
 			this.config = null;
 			error("FATAL - LOGGING DISABLED - could not create Appender", e);
+			return;
+		}
+		if (sharedPool != null) {
+			pool = sharedPool;
 		}
+		else if (config.poolSize > 0) {
+			pool = new ConnectionPool(String.valueOf(getName()), new ConnectionPool.ConnectionFactory() {
+				@Override
+				public Connection connect() throws SQLException {
+					return configure(openConnection());
+				}
+			}, config.poolSize, config.poolValidationMillis, config.reconnectTimeMillis, config.maxReconnectTimeMillis);
+			pool.start();
+		}
+	}
+
+	/**
+	 * Create a new (not yet activated) appender with the same pending configuration as this one.
+	 */
+	public DiscardingJdbcAppender copy() {
+		DiscardingJdbcAppender a = new DiscardingJdbcAppender();
+		a.pendingConfig = this.pendingConfig.copy();
+		a.setName(getName());
+		return a;
+	}
+
+	/**
+	 * Create a new (not yet activated) appender like copy() which takes its connections from this
+	 * appender's connection pool rather than starting a pool (and pool thread) of its own.
+	 * This appender must already be activated with a pool, and stays responsible for closing it.
+	 */
+	DiscardingJdbcAppender copySharingPool() {
+		DiscardingJdbcAppender a = copy();
+		a.sharedPool = this.pool;
+		return a;
 	}
 
 	/**
@@ -150,50 +349,448 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 				return false;
 			}
 		}
+		if (config.copySql != null)
+			return copyEvents(Collections.singletonList(event)) == 1;
 		return insert(event);
 	}
+
+	/**
+	 * Write the given events to the database in a single transaction using a JDBC batch.
+	 * If the batch fails, the events are retried one at a time so that a single bad row
+	 * does not prevent the rest of the batch from being written. Rows the database rejects
+	 * for their data (see isDataError) are reported and skipped (see getRejectedCount()).
+	 *
+	 * @return the number of events written or rejected, counting from the start of the list
+	 */
+	public int appendEvents(List<LoggingEvent> events) {
+		if (this.config == null) 
+			return 0;
+		if (this.connection == null) {
+			throttledConnect();
+			if (this.connection == null) {
+				return 0;
+			}
+		}
+		if (config.copySql != null)
+			return copyEvents(events);
+		if (events.size() == 1)
+			return insertOrSkip(events.get(0)) ? 1 : 0;
+		return insertBatch(events);
+	}
 	
 	protected void throttledConnect() {
 		assert(this.connection == null);
 		long now = System.currentTimeMillis();
-		if(lastFailedConnectTimeMillis < now - config.reconnectTimeMillis) {
+		// taking from the pool only blocks until its first connect, and the pool does its own throttling
+		if(pool != null || lastFailedConnectTimeMillis < now - config.reconnectTimeMillis) {
 			try {
 				newConnection();
+				if (this.connection != null)
+					lastFailedConnectTimeMillis = 0;
 			} 
 			catch(SQLException e) {
 				lastFailedConnectTimeMillis = now;
-				error("Re-connect attempt failed " + e.getMessage(), null);
+				disconnected();
+				if (pool == null || pool.isFailing()) // not just warming up
+					error("Re-connect attempt failed " + e.getMessage(), null);
 			}
 		}
 	}
 	
+	/**
+	 * True if there is no connection because the last attempt to connect failed.
+	 */
+	public boolean isDatabaseDown() {
+		if (this.connection != null)
+			return false;
+		if (pool != null)
+			return pool.isFailing();
+		return lastFailedConnectTimeMillis != 0;
+	}
+
+	/**
+	 * Wait before retrying a failed write.
+	 * With a connection pool, if there was no connection to write with, this returns as soon
+	 * as the pool has one ready. Otherwise (e.g. the insert itself failed) it waits for the timeout.
+	 *
+	 * @return true if connected
+	 */
+	public boolean awaitConnection(long timeoutMillis) throws InterruptedException {
+		if (this.connection != null)
+			return true;
+		if (pool == null || System.currentTimeMillis() - lastFailedWriteTimeMillis < config.reconnectTimeMillis) {
+			Thread.sleep(timeoutMillis);
+			return false;
+		}
+		Connection c = pool.take(timeoutMillis);
+		if (c != null)
+			connected(c);
+		return c != null;
+	}
+
+	/**
+	 * Number of events the database rejected (e.g. a constraint violation or a value too
+	 * large for its column) and which were therefore discarded.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/*
+	 * Record the metrics (if any) of the current write, reconnects and time disconnected.
+	 */
+	void setMetrics(AppenderMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private void connected(Connection c) {
+		this.connection = c;
+		if (disconnectedSinceMillis != 0) {
+			if (metrics != null)
+				metrics.reconnected(System.currentTimeMillis() - disconnectedSinceMillis);
+			disconnectedSinceMillis = 0;
+		}
+	}
+
+	private void disconnected() {
+		if (disconnectedSinceMillis == 0)
+			disconnectedSinceMillis = System.currentTimeMillis();
+	}
+
 	protected boolean insert(LoggingEvent event) {
 		int rc = 0;
 		try {
 			if (statement == null) 
 				statement = this.connection.prepareStatement(config.sql);
-			for (int i = 0; i < layouts.length; i++)
-				statement.setString(i + 1, layouts[i].format(event));
+			writeTrace(event);
+			bind(statement, event);
+			final long start = System.nanoTime();
 			rc = statement.executeUpdate();
+			if (metrics != null)
+				metrics.inserted(System.nanoTime() - start);
 			if (rc != 1) 
 				errorWrite("executeUpdate() returned " + rc + " (1 expected)", null);
             else
                 if (DEBUG) debug("Inserted message: " + event.getMessage());
 		} catch (SQLException e) {
+			if (isDataError(e)) {
+				errorWrite("Exception during insert so discarding message: " + event.getRenderedMessage(), e);
+				rejected.incrementAndGet();
+				return false;
+			}
 			errorWrite("Exception during insert so closing connection", e);
+			lastFailedWriteTimeMillis = System.currentTimeMillis();
 			closeConnection();
+			disconnected();
 		}
 		return rc == 1;
 	}
 
+	/*
+	 * Insert the event on its own, returning false only if the connection failed
+	 * (a row rejected by the database is reported and skipped by insert()).
+	 */
+	private boolean insertOrSkip(LoggingEvent event) {
+		return insert(event) || this.connection != null;
+	}
+
+	/*
+	 * True if the statement failed because of the row's data, so retrying it cannot succeed:
+	 * a data exception or integrity constraint violation (SQLState class 22 or 23) on a connection
+	 * which is still valid. Anything else, e.g. a missing table or permission (class 42), a
+	 * deadlock or a lost connection, may be fixed by the time the row is retried, so it is not.
+	 */
+	protected boolean isDataError(SQLException e) {
+		String state = e.getSQLState();
+		if (!(e instanceof SQLDataException || e instanceof SQLIntegrityConstraintViolationException
+				|| state != null && (state.startsWith("22") || state.startsWith("23"))))
+			return false;
+		try {
+			return this.connection != null && this.connection.isValid(ConnectionPool.VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException ignored) {
+			return false;
+		}
+	}
+
+	protected int insertBatch(List<LoggingEvent> events) {
+		boolean committed = false;
+		try {
+			if (statement == null) 
+				statement = this.connection.prepareStatement(config.sql);
+			// traces are written outside the batch transaction so a rollback cannot lose them
+			for (LoggingEvent event : events)
+				writeTrace(event);
+			this.connection.setAutoCommit(false);
+			String warning = multiRowInsert == null ? executeBatch(events) : executeMultiRow(events);
+			this.connection.commit();
+			committed = true;
+			this.connection.setAutoCommit(true);
+			if (warning != null)
+				errorWrite(warning, null);
+			if (DEBUG) debug("Inserted batch of " + events.size() + " messages");
+			return events.size();
+		} catch (SQLException e) {
+			if (committed) {
+				errorWrite("Exception after batch commit so closing connection", e);
+				closeConnection();
+				disconnected();
+				return events.size();
+			}
+			errorWrite("Exception during batch insert so inserting messages individually", e);
+			rollbackBatch();
+		}
+		int n = 0;
+		for (LoggingEvent event : events) {
+			if (this.connection == null || !insertOrSkip(event))
+				break;
+			n++;
+		}
+		return n;
+	}
+
+	/*
+	 * Send the events as a JDBC batch of the single row statement.
+	 * Returns a warning if the driver reports unexpected update counts.
+	 */
+	private String executeBatch(List<LoggingEvent> events) throws SQLException {
+		for (LoggingEvent event : events) {
+			bind(statement, event);
+			statement.addBatch();
+		}
+		final long start = System.nanoTime();
+		int[] rcs = statement.executeBatch();
+		if (metrics != null)
+			metrics.inserted(System.nanoTime() - start);
+		for (int rc : rcs) {
+			if (rc != 1 && rc != Statement.SUCCESS_NO_INFO)
+				return "executeBatch() returned " + rc + " (1 expected)";
+		}
+		return null;
+	}
+
+	/*
+	 * Send the events in blocks of multi-row inserts, with a prepared statement cached per block size.
+	 * Returns a warning if the driver reports an unexpected update count.
+	 */
+	private String executeMultiRow(List<LoggingEvent> events) throws SQLException {
+		long rows = 0;
+		for (int i = 0; i < events.size(); ) {
+			final int n = multiRowInsert.blockSize(events.size() - i);
+			PreparedStatement st = multiRowStatements.get(n);
+			if (st == null) {
+				st = this.connection.prepareStatement(multiRowInsert.sql(n));
+				multiRowStatements.put(n, st);
+			}
+			for (int j = 0; j < n; j++)
+				bind(st, j * binders.length, events.get(i + j));
+			final long start = System.nanoTime();
+			rows += st.executeUpdate();
+			if (metrics != null)
+				metrics.inserted(System.nanoTime() - start);
+			i += n;
+		}
+		return rows == events.size() ? null : "multi-row insert returned " + rows + " (" + events.size() + " expected)";
+	}
+
+	/*
+	 * Write the events with a single COPY (all or nothing). If the database rejects a row while
+	 * the connection stays usable, the halves are copied separately (see copyHalves).
+	 *
+	 * Returns the number of events written or rejected, counting from the start of the list.
+	 */
+	protected int copyEvents(List<LoggingEvent> events) {
+		try {
+			if (copy == null)
+				copy = openCopy(this.connection);
+			for (LoggingEvent event : events)
+				writeTrace(event);
+			StringBuilder rows = new StringBuilder(256 * events.size());
+			for (LoggingEvent event : events)
+				appendCopyRow(rows, event);
+			final long start = System.nanoTime();
+			long n = copy.copyIn(config.copySql, new StringReader(rows.toString()));
+			if (metrics != null)
+				metrics.inserted(System.nanoTime() - start);
+			if (n != events.size())
+				errorWrite("COPY returned " + n + " (" + events.size() + " expected)", null);
+			else
+				if (DEBUG) debug("Copied " + n + " messages");
+			return events.size();
+		} catch (SQLException e) {
+			if (isDataError(e))
+				return copyHalves(events, e);
+			errorWrite("Exception during COPY so closing connection", e);
+			lastFailedWriteTimeMillis = System.currentTimeMillis();
+			closeConnection();
+			disconnected();
+			return 0;
+		}
+	}
+
+	/*
+	 * Copy each half of events which the database rejected, down to single rows which are
+	 * reported and skipped, so one bad row costs about log2(events) extra COPYs rather than
+	 * the whole batch. Stops at the first half which fails on the connection.
+	 */
+	private int copyHalves(List<LoggingEvent> events, SQLException e) {
+		if (events.size() == 1) {
+			errorWrite("Exception during COPY so discarding message: " + events.get(0).getRenderedMessage(), e);
+			rejected.incrementAndGet();
+			return 1;
+		}
+		if (DEBUG) debug("COPY of " + events.size() + " messages rejected so copying each half: " + e);
+		final int half = events.size() / 2;
+		int n = copyEvents(events.subList(0, half));
+		if (n < half)
+			return n;
+		return n + copyEvents(events.subList(half, events.size()));
+	}
+
+	PgCopy openCopy(Connection connection) throws SQLException {
+		return PgCopy.forConnection(connection);
+	}
+
+	private void appendCopyRow(StringBuilder rows, LoggingEvent event) {
+		String[] params = event instanceof RenderedLoggingEvent ? ((RenderedLoggingEvent) event).getParams() : null;
+		for (int i = 0; i < binders.length; i++) {
+			if (i > 0)
+				rows.append('\t');
+			String rendered = params != null ? params[i] : binders[i].render(event);
+			PgCopy.appendValue(rows, binders[i].text(event, rendered));
+		}
+		rows.append('\n');
+	}
+
+	/*
+	 * Discard a failed batch and return the connection to autocommit mode
+	 * (closing it if that is not possible).
+	 */
+	protected void rollbackBatch() {
+		try {
+			if (statement != null)
+				statement.clearBatch();
+			this.connection.rollback();
+			this.connection.setAutoCommit(true);
+		}
+		catch (SQLException e) {
+			errorWrite("Exception during batch rollback so closing connection", e);
+			lastFailedWriteTimeMillis = System.currentTimeMillis();
+			closeConnection();
+			disconnected();
+		}
+	}
+
+	/*
+	 * With throwableSql, write the event's stack trace unless one with the same hash has
+	 * already been written. A failure is reported but does not stop the log row being written.
+	 */
+	protected void writeTrace(LoggingEvent event) {
+		if (config.throwableSql == null)
+			return;
+		String hash = null, trace = null;
+		if (event instanceof RenderedLoggingEvent) {
+			String[] params = ((RenderedLoggingEvent) event).getParams();
+			if (params.length == binders.length + 2) {
+				hash = params[binders.length];
+				trace = params[binders.length + 1];
+			}
+		} else {
+			ThrowableInformation ti = event.getThrowableInformation();
+			if (ti != null) {
+				hash = ThrowableCache.fingerprint(ti);
+				trace = throwables.render(ti);
+			}
+		}
+		if (hash == null || writtenTraces.contains(hash))
+			return;
+		try {
+			if (traceStatement == null)
+				traceStatement = this.connection.prepareStatement(config.throwableSql);
+			traceStatement.setString(1, hash);
+			traceStatement.setCharacterStream(2, new StringReader(trace),
+					config.maxClobChars > 0 ? Math.min(trace.length(), config.maxClobChars) : trace.length());
+			traceStatement.executeUpdate();
+			writtenTraces.add(hash);
+		} catch (SQLException e) {
+			errorWrite("Exception writing stack trace " + hash, e);
+		}
+	}
+
+	/*
+	 * Set the statement parameters for the given event.
+	 */
+	protected void bind(PreparedStatement statement, LoggingEvent event) throws SQLException {
+		bind(statement, 0, event);
+	}
+
+	/*
+	 * Set the statement parameters for the given event, after the first offset parameters.
+	 */
+	protected void bind(PreparedStatement statement, int offset, LoggingEvent event) throws SQLException {
+		if (event instanceof RenderedLoggingEvent) {
+			String[] params = ((RenderedLoggingEvent) event).getParams();
+			for (int i = 0; i < binders.length; i++)
+				binders[i].bind(statement, offset + i + 1, event, params[i]);
+			return;
+		}
+		for (int i = 0; i < binders.length; i++)
+			binders[i].bind(statement, offset + i + 1, event);
+	}
+
+	/**
+	 * Render the value of each SQL parameter for the given event, in statement parameter order.
+	 * Columns bound directly from event fields (see sqlParamTypes) are null.
+	 * With throwableSql the stack trace hash and rendering (or nulls) follow the parameters.
+	 * May be called concurrently (binders are thread safe).
+	 */
+	public String[] render(LoggingEvent event) {
+		String[] params = new String[config.throwableSql == null ? binders.length : binders.length + 2];
+		for (int i = 0; i < binders.length; i++)
+			params[i] = binders[i].render(event);
+		if (config.throwableSql != null) {
+			ThrowableInformation ti = event.getThrowableInformation();
+			if (ti != null) {
+				params[binders.length] = ThrowableCache.fingerprint(ti);
+				params[binders.length + 1] = throwables.render(ti);
+			}
+		}
+		return params;
+	}
+
 	protected void loadDriver() throws ClassNotFoundException {
-		Class.forName(config.driver);
+		if (config.driver != null)
+			Class.forName(config.driver);
+	}
+
+	/*
+	 * Look up or create the DataSource, if one is configured.
+	 */
+	protected void loadDataSource() throws ReflectiveOperationException, NamingException {
+		if (config.jndiName != null) {
+			dataSource = (DataSource) new InitialContext().lookup(config.jndiName);
+		}
+		else if (config.dataSourceClass != null) {
+			dataSource = (DataSource) Class.forName(config.dataSourceClass).getDeclaredConstructor().newInstance();
+			if (config.dataSourceProperties != null) {
+				PropertySetter setter = new PropertySetter(dataSource);
+				for (String prop : config.dataSourceProperties.split(";")) {
+					int eq = prop.indexOf('=');
+					if (eq > 0)
+						setter.setProperty(prop.substring(0, eq).trim(), prop.substring(eq + 1).trim());
+				}
+				setter.activate();
+			}
+		}
 	}
 	
 	protected void newConnection() throws SQLException {
-		debug("Attempting to connect to jdbc url " + config.url);
+		debug("Attempting to connect to " + (pool != null ? "pool" : dataSource != null ? "data source" : "jdbc url " + config.url));
 		Connection c = obtainConnection();
-		if (c.isClosed()) {
+		if (pool != null) { // already validated and configured in the background
+			debug("Connection SUCCESS " + c);
+			connected(c);
+		}
+		else if (c.isClosed()) {
 			error("Driver returned a closed connection!", null);
 		}
 		else if(!c.isValid(10)) { // only wait max of 10 secs for validity check
@@ -201,14 +798,31 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		}
 		else {
 			debug("Connection SUCCESS " + c);
-			c.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-			c.setAutoCommit(true);
-			this.connection = c;
+			connected(configure(c));
 		}
 	}
 	
 	protected Connection obtainConnection() throws SQLException {
-		return DriverManager.getConnection(config.url, config.user, config.password);
+		if (pool != null)
+			return pool.take();
+		return openConnection();
+	}
+
+	/*
+	 * Make a new connection from the DataSource or DriverManager.
+	 */
+	protected Connection openConnection() throws SQLException {
+		if (dataSource == null)
+			return DriverManager.getConnection(config.url, config.user, config.password);
+		if (config.user != null)
+			return dataSource.getConnection(config.user, config.password);
+		return dataSource.getConnection();
+	}
+
+	protected Connection configure(Connection c) throws SQLException {
+		c.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+		c.setAutoCommit(true);
+		return c;
 	}
 
 	/*
@@ -221,6 +835,20 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		} 
 		catch (SQLException ignored) {}
 		this.statement = null;
+		try {
+			if (this.traceStatement != null)
+				this.traceStatement.close();
+		}
+		catch (SQLException ignored) {}
+		this.traceStatement = null;
+		this.copy = null;
+		for (PreparedStatement st : multiRowStatements.values()) {
+			try {
+				st.close();
+			}
+			catch (SQLException ignored) {}
+		}
+		multiRowStatements.clear();
 		try {
 			if (this.connection != null) {
 				this.connection.close();
@@ -232,20 +860,28 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 	}
 	
 	/*
-	 * Build and store an EnhancedPatternLayout for each SQL parameter string.
+	 * Compile and store a ParamBinder for each SQL parameter string.
 	 */
 	protected void loadPatterns() {
 		int numParams = countMatches(config.sql, "?");
 		String[] frags = config.sqlParams.split("\\s*" + config.sqlParamsSeparator + "\\s*");
-		layouts = new EnhancedPatternLayout[frags.length];
-		if (frags.length != numParams) {
+		String[] types = config.sqlParamTypes == null ? new String[0] : 
+				config.sqlParamTypes.trim().split("\\s*" + config.sqlParamsSeparator + "\\s*");
+		binders = new ParamBinder[frags.length];
+		if (config.copySql == null && frags.length != numParams) {
 			throw new IllegalArgumentException("SQL has " + numParams + 
 					" wildcards but sqlParams defines only " + frags.length);
 		}
-		else {
-			for (int i=0; i<frags.length; i++) 
-				layouts[i] = new EnhancedPatternLayout(frags[i]);
+		if (config.throwableSql != null && countMatches(config.throwableSql, "?") != 2) {
+			throw new IllegalArgumentException("throwableSql must have 2 wildcards (hash, trace)");
 		}
+		multiRowInsert = config.multiRowInsertSize > 1 && config.copySql == null ?
+				MultiRowInsert.parse(config.sql, config.multiRowInsertSize) : null;
+		throwables = config.throwableCacheSize > 0 || config.throwableSql != null ?
+				new ThrowableCache(config.throwableCacheSize) : null;
+		for (int i=0; i<frags.length; i++) 
+			binders[i] = ParamBinder.create(i < types.length ? types[i] : null, frags[i], config.maxClobChars,
+					config.throwableCacheSize > 0 ? throwables : null); // without caching, keep the bounded streaming
 	}
 
     private static int countMatches(final String str, final String sub) {
@@ -269,12 +905,13 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 	 * Null out patterns to avoid potential memory leaks.
 	 */
 	protected void closePatterns() {
-		if (layouts != null) {
-			for (int i=0; i<layouts.length; i++) {
-				layouts[i] = null;
+		if (binders != null) {
+			for (int i=0; i<binders.length; i++) {
+				binders[i] = null;
 			}
-			layouts = null;
+			binders = null;
 		}
+		throwables = null;
 	}
 
 	protected void debug(String msg) {
@@ -328,6 +965,16 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 		pendingConfig.sqlParams = sqlParams;
 	}
 	
+	// config bean method
+	public void setSqlParamTypes(String sqlParamTypes) {
+		pendingConfig.sqlParamTypes = sqlParamTypes;
+	}
+
+	// config bean method
+	public void setMaxClobChars(int maxClobChars) {
+		pendingConfig.maxClobChars = maxClobChars;
+	}
+
 	// config bean method
 	public void setSqlParamsSeparator(String sqlParamsSeparator) {
 		pendingConfig.sqlParamsSeparator = sqlParamsSeparator;
@@ -342,5 +989,55 @@ public class DiscardingJdbcAppender extends AppenderSkeleton implements Appender
 	public void setReconnectTimeMillis(int reconnectTimeMillis) {
 		pendingConfig.reconnectTimeMillis = reconnectTimeMillis;
 	}
+
+	// config bean method
+	public void setMaxReconnectTimeMillis(int maxReconnectTimeMillis) {
+		pendingConfig.maxReconnectTimeMillis = maxReconnectTimeMillis;
+	}
+
+	// config bean method
+	public void setJndiName(String jndiName) {
+		pendingConfig.jndiName = jndiName;
+	}
+
+	// config bean method
+	public void setDataSourceClass(String dataSourceClass) {
+		pendingConfig.dataSourceClass = dataSourceClass;
+	}
+
+	// config bean method
+	public void setDataSourceProperties(String dataSourceProperties) {
+		pendingConfig.dataSourceProperties = dataSourceProperties;
+	}
+
+	// config bean method
+	public void setPoolSize(int poolSize) {
+		pendingConfig.poolSize = poolSize;
+	}
+
+	// config bean method
+	public void setPoolValidationMillis(int poolValidationMillis) {
+		pendingConfig.poolValidationMillis = poolValidationMillis;
+	}
+
+	// config bean method
+	public void setThrowableCacheSize(int throwableCacheSize) {
+		pendingConfig.throwableCacheSize = throwableCacheSize;
+	}
+
+	// config bean method
+	public void setThrowableSql(String throwableSql) {
+		pendingConfig.throwableSql = throwableSql;
+	}
+
+	// config bean method
+	public void setCopySql(String copySql) {
+		pendingConfig.copySql = copySql;
+	}
+
+	// config bean method
+	public void setMultiRowInsertSize(int multiRowInsertSize) {
+		pendingConfig.multiRowInsertSize = multiRowInsertSize;
+	}
 	
 }
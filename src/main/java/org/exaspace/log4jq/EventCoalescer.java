@@ -0,0 +1,107 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collapses identical events (same logger, level, message and throwable fingerprint) logged within
+ * a time window into the first one, which carries a repeat count (see CoalescedLoggingEvent).
+ *
+ * Repeats are only merged into an event still waiting in the queue: once a writer has taken it,
+ * the next repeat is queued as a new event. So during a storm of identical messages the queue
+ * holds, and the database gets, at most one row per message for each batch the writer takes
+ * (or each window, whichever is shorter).
+ *
+ * Thread safe.
+ */
+final class EventCoalescer {
+
+    /*
+     * The open events are forgotten when there are this many (e.g. the messages are all different).
+     * Events are removed as they are sealed, so this only bounds the events still queued.
+     */
+    private static final int MAX_OPEN_EVENTS = 10000;
+
+    private static final class Key {
+
+        private final String logger;
+        private final int level;
+        private final String message;
+        private final String throwable;
+        private final int hash;
+
+        Key(LoggingEvent event) {
+            this.logger = event.getLoggerName();
+            this.level = event.getLevel().toInt();
+            this.message = event.getRenderedMessage();
+            ThrowableInformation ti = event.getThrowableInformation();
+            this.throwable = ti == null ? null : ThrowableCache.fingerprint(ti);
+            int h = level;
+            h = 31 * h + (logger == null ? 0 : logger.hashCode());
+            h = 31 * h + (message == null ? 0 : message.hashCode());
+            h = 31 * h + (throwable == null ? 0 : throwable.hashCode());
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && level == k.level && eq(logger, k.logger) && eq(message, k.message)
+                    && eq(throwable, k.throwable);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        private static boolean eq(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final long windowMillis;
+    private final ConcurrentHashMap<Key, CoalescedLoggingEvent> open = new ConcurrentHashMap<Key, CoalescedLoggingEvent>();
+
+    EventCoalescer(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * The event to queue, or null if it was counted as a repeat of an event already queued.
+     */
+    CoalescedLoggingEvent coalesce(LoggingEvent event) {
+        Key key = new Key(event);
+        CoalescedLoggingEvent pending = open.get(key);
+        if (pending != null && event.timeStamp - pending.timeStamp < windowMillis && pending.repeat(event.timeStamp))
+            return null;
+        CoalescedLoggingEvent first = new CoalescedLoggingEvent(event, this, key);
+        if (open.size() >= MAX_OPEN_EVENTS)
+            open.clear();
+        open.put(key, first);
+        return first;
+    }
+
+    /**
+     * Stop counting repeats into an event which was not queued after all, or was dropped from the queue.
+     */
+    void forget(CoalescedLoggingEvent event) {
+        event.seal();
+    }
+
+    /*
+     * Called by the event once sealed (taken by a writer, spilled, or forgotten).
+     */
+    void sealed(CoalescedLoggingEvent event) {
+        open.remove(event.key, event);
+    }
+
+    int openEvents() {
+        return open.size();
+    }
+
+}
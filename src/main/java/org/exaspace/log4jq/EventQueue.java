@@ -0,0 +1,62 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory hand-off between the application threads calling the logger
+ * and the background thread writing events to the database.
+ *
+ * Implementations must allow offer() to be called concurrently from any number
+ * of threads. The consuming methods are called by the log writer thread.
+ */
+interface EventQueue {
+
+    /**
+     * Add the event if there is space, returning immediately in either case.
+     */
+    boolean offer(LoggingEvent event);
+
+    /**
+     * Remove the oldest queued event with a level lower than the given level,
+     * or return null if there is none (or the queue does not support removal).
+     */
+    LoggingEvent evict(Level lowerThan);
+
+    /**
+     * Remove the oldest event from the part of the queue the given event would be offered to
+     * (so that offering it again can succeed), or return null if that part is empty.
+     */
+    LoggingEvent evictOldest(LoggingEvent event);
+
+    /**
+     * False if this queue never removes events from the middle (evict() always returns null).
+     */
+    boolean canEvict();
+
+    /**
+     * Remove the next event, or return null if the queue is empty.
+     */
+    LoggingEvent poll();
+
+    /**
+     * Remove the next event, waiting up to the given time for one to arrive.
+     */
+    LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Remove the next event, waiting as long as necessary for one to arrive.
+     */
+    LoggingEvent take() throws InterruptedException;
+
+    /**
+     * Move up to maxElements queued events to the given collection without waiting.
+     */
+    int drainTo(Collection<? super LoggingEvent> c, int maxElements);
+
+    int size();
+
+}
@@ -0,0 +1,17 @@
+package org.exaspace.log4jq;
+
+/**
+ * Receives the metrics of an AsyncJdbcAppender every metricsIntervalMillis
+ * (on the appender's metrics thread).
+ *
+ * Configure with the class name, which must have a public no-arg constructor:
+ *
+ * <pre>
+ * log4j.appender.JDBC_ASYNC.metricsListener = com.example.MyMetricsListener
+ * </pre>
+ */
+public interface MetricsListener {
+
+    void onMetrics(String appenderName, AppenderMetrics metrics);
+
+}
@@ -0,0 +1,77 @@
+package org.exaspace.log4jq;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a single row "INSERT ... VALUES (...)" statement to insert several rows at once:
+ * "INSERT ... VALUES (...), (...), ...", for drivers which send each statement of a JDBC batch
+ * in its own round trip.
+ *
+ * To keep the number of distinct statements (and so prepared statements) small, a batch is sent
+ * in blocks of maxRows rows, and any remainder in blocks of decreasing powers of two.
+ */
+final class MultiRowInsert {
+
+    private static final Pattern VALUES = Pattern.compile("(?i)\\bVALUES\\s*\\(");
+
+    private final String prefix;
+    private final String row;
+    private final String suffix;
+    private final int maxRows;
+
+    private MultiRowInsert(String prefix, String row, String suffix, int maxRows) {
+        this.prefix = prefix;
+        this.row = row;
+        this.suffix = suffix;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the sql has no VALUES (...) list
+     */
+    static MultiRowInsert parse(String sql, int maxRows) {
+        Matcher m = VALUES.matcher(sql);
+        if (!m.find())
+            throw new IllegalArgumentException("multiRowInsertSize needs an INSERT ... VALUES (...) sql statement");
+        int open = m.end() - 1;
+        int close = matchingParen(sql, open);
+        if (close < 0)
+            throw new IllegalArgumentException("Unbalanced parentheses in sql VALUES list");
+        return new MultiRowInsert(sql.substring(0, open), sql.substring(open, close + 1), sql.substring(close + 1), maxRows);
+    }
+
+    private static int matchingParen(String sql, int open) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted; // '' inside a literal toggles twice
+            else if (!quoted && c == '(')
+                depth++;
+            else if (!quoted && c == ')' && --depth == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The statement for the given number of rows.
+     */
+    String sql(int rows) {
+        StringBuilder sb = new StringBuilder(prefix.length() + rows * (row.length() + 2) + suffix.length());
+        sb.append(prefix).append(row);
+        for (int i = 1; i < rows; i++)
+            sb.append(", ").append(row);
+        return sb.append(suffix).toString();
+    }
+
+    /**
+     * How many of the remaining rows to send in the next statement.
+     */
+    int blockSize(int remaining) {
+        return remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.exaspace.log4jq;
+
+/**
+ * What AsyncJdbcAppender does with a new event when the queue is full.
+ */
+enum OverflowPolicy {
+
+    /**
+     * Discard the new event (the original behaviour).
+     */
+    DROP_NEWEST("dropNewest"),
+
+    /**
+     * Discard the oldest queued event to make room: with queueType striped the oldest of the
+     * logging thread's own stripe, and with priority the oldest of the new event's level group.
+     */
+    DROP_OLDEST("dropOldest"),
+
+    /**
+     * Discard the oldest queued event of a lower level than the new one, or else the new one.
+     * Needs a queue type which can remove queued events (deque or priority): with the others
+     * this is the same as DROP_NEWEST.
+     */
+    DROP_LOWER_LEVEL("dropLowerLevel"),
+
+    /**
+     * Block the application thread until there is room, up to overflowBlockMillis.
+     */
+    BLOCK("block"),
+
+    /**
+     * Once the queue is sampleFillPercent full, keep only a random samplePercent
+     * of INFO and lower events. Discard new events if the queue is still full.
+     */
+    SAMPLE("sample");
+
+    private final String configName;
+
+    OverflowPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    String configName() {
+        return configName;
+    }
+
+    /**
+     * The policy with the given config name, or null if not recognised.
+     */
+    static OverflowPolicy forName(String name) {
+        for (OverflowPolicy p : values()) {
+            if (p.configName.equalsIgnoreCase(name))
+                return p;
+        }
+        return null;
+    }
+
+}
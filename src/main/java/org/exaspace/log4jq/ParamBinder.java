@@ -0,0 +1,345 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.io.CharArrayReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Binds one SQL parameter of the insert statement, with the JDBC type given by sqlParamTypes.
+ *
+ * <ul>
+ * <li>string (default) - setString() of the rendered pattern</li>
+ * <li>timestamp - setTimestamp() of the event time (the pattern is not used, %d by convention)</li>
+ * <li>int, long - %p binds the level (Level.toInt()), %d binds the event time in millis (long only),
+ * anything else is rendered and parsed, binding null if it is not a number (e.g. %L without location info)</li>
+ * <li>clob - setCharacterStream(), truncated to maxClobChars. A plain %m or %throwable is streamed
+ * straight from the event: the stack trace is printed into a buffer of at most maxClobChars rather than
+ * rendered to one String per line and then joined, so a deep trace costs no more than the limit.</li>
+ * </ul>
+ *
+ * If there is a ThrowableCache, %throwable is rendered through it instead (of any type), so each
+ * distinct stack trace is rendered only once.
+ *
+ * Binding is split into render() and bind() so that the rendering can be done on the application
+ * thread (see RenderedLoggingEvent). Columns bound straight from event fields render to null.
+ */
+abstract class ParamBinder {
+
+    static final String STRING = "string";
+    static final String TIMESTAMP = "timestamp";
+    static final String INT = "int";
+    static final String LONG = "long";
+    static final String CLOB = "clob";
+
+    final ParamRenderer renderer;
+
+    ParamBinder(ParamRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * The rendered value needed by bind(), or null if the value is taken from the event itself.
+     */
+    String render(LoggingEvent event) {
+        return renderer.render(event);
+    }
+
+    /**
+     * Set the parameter at the given index.
+     */
+    void bind(PreparedStatement statement, int index, LoggingEvent event) throws SQLException {
+        bind(statement, index, event, render(event));
+    }
+
+    /**
+     * Set the parameter at the given index from an earlier rendering.
+     *
+     * @param rendered the result of render() for this event
+     */
+    abstract void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException;
+
+    /**
+     * The value bind() would set, as text (for COPY), or null for SQL null.
+     *
+     * @param rendered the result of render() for this event
+     */
+    String text(LoggingEvent event, String rendered) {
+        return rendered;
+    }
+
+    static ParamBinder create(String type, String pattern) {
+        return create(type, pattern, 0);
+    }
+
+    static ParamBinder create(String type, String pattern, int maxClobChars) {
+        return create(type, pattern, maxClobChars, null);
+    }
+
+    /**
+     * @param type one of the type names above (case insensitive, null or empty for string)
+     * @param pattern the sqlParams pattern for the column
+     * @param maxClobChars truncate clob columns to this many characters, 0 for no limit
+     * @param throwables renders %throwable, or null to render it for every event
+     * @throws IllegalArgumentException if the type is unknown or does not support the pattern
+     */
+    static ParamBinder create(String type, String pattern, int maxClobChars, ThrowableCache throwables) {
+        final boolean throwable = "%throwable".equals(pattern);
+        ParamRenderer renderer = throwable && throwables != null ? throwables : ParamRenderer.compile(pattern);
+        if (type == null || type.isEmpty() || STRING.equalsIgnoreCase(type))
+            return new StringBinder(renderer);
+        if (TIMESTAMP.equalsIgnoreCase(type))
+            return new TimestampBinder(renderer);
+        if (CLOB.equalsIgnoreCase(type))
+            return new ClobBinder(renderer, throwable && throwables == null, maxClobChars > 0 ? maxClobChars : Integer.MAX_VALUE);
+        boolean isLong = LONG.equalsIgnoreCase(type);
+        if (!isLong && !INT.equalsIgnoreCase(type))
+            throw new IllegalArgumentException("Unknown sqlParamTypes type " + type);
+        if (renderer == ParamRenderer.LEVEL)
+            return new LevelBinder(renderer, isLong);
+        if (pattern.startsWith("%d")) {
+            if (!isLong)
+                throw new IllegalArgumentException("Use type long or timestamp for date param " + pattern);
+            return new TimeMillisBinder(renderer);
+        }
+        return new NumberBinder(renderer, isLong);
+    }
+
+    private static final class StringBinder extends ParamBinder {
+
+        StringBinder(ParamRenderer renderer) {
+            super(renderer);
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            statement.setString(index, rendered);
+        }
+    }
+
+    private static final class TimestampBinder extends ParamBinder {
+
+        TimestampBinder(ParamRenderer renderer) {
+            super(renderer);
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            return null;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            statement.setTimestamp(index, new Timestamp(event.getTimeStamp()));
+        }
+
+        @Override
+        String text(LoggingEvent event, String rendered) {
+            return new Timestamp(event.getTimeStamp()).toString();
+        }
+    }
+
+    private static final class TimeMillisBinder extends ParamBinder {
+
+        TimeMillisBinder(ParamRenderer renderer) {
+            super(renderer);
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            return null;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            statement.setLong(index, event.getTimeStamp());
+        }
+
+        @Override
+        String text(LoggingEvent event, String rendered) {
+            return String.valueOf(event.getTimeStamp());
+        }
+    }
+
+    private static final class LevelBinder extends ParamBinder {
+
+        private final boolean isLong;
+
+        LevelBinder(ParamRenderer renderer, boolean isLong) {
+            super(renderer);
+            this.isLong = isLong;
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            return null;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            if (isLong)
+                statement.setLong(index, event.getLevel().toInt());
+            else
+                statement.setInt(index, event.getLevel().toInt());
+        }
+
+        @Override
+        String text(LoggingEvent event, String rendered) {
+            return String.valueOf(event.getLevel().toInt());
+        }
+    }
+
+    private static final class NumberBinder extends ParamBinder {
+
+        private final boolean isLong;
+
+        NumberBinder(ParamRenderer renderer, boolean isLong) {
+            super(renderer);
+            this.isLong = isLong;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            try {
+                if (rendered != null) {
+                    if (isLong)
+                        statement.setLong(index, Long.parseLong(rendered.trim()));
+                    else
+                        statement.setInt(index, Integer.parseInt(rendered.trim()));
+                    return;
+                }
+            } catch (NumberFormatException ignored) {}
+            statement.setNull(index, isLong ? Types.BIGINT : Types.INTEGER);
+        }
+
+        @Override
+        String text(LoggingEvent event, String rendered) {
+            try {
+                if (rendered != null)
+                    return isLong ? String.valueOf(Long.parseLong(rendered.trim())) : String.valueOf(Integer.parseInt(rendered.trim()));
+            } catch (NumberFormatException ignored) {}
+            return null;
+        }
+    }
+
+    private static final class ClobBinder extends ParamBinder {
+
+        private final boolean throwable;
+        private final int maxChars;
+
+        ClobBinder(ParamRenderer renderer, boolean throwable, int maxChars) {
+            super(renderer);
+            this.throwable = throwable;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            String s = renderer.render(event);
+            return s != null && s.length() > maxChars ? s.substring(0, maxChars) : s;
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event) throws SQLException {
+            if (!throwable) {
+                // the length limits how much the driver reads, so the string is not copied to truncate it
+                bind(statement, index, event, renderer.render(event));
+                return;
+            }
+            ThrowableInformation ti = event.getThrowableInformation();
+            if (ti == null) {
+                bind(statement, index, event, "");
+                return;
+            }
+            TraceWriter out = new TraceWriter(maxChars);
+            try {
+                Throwable t = ti.getThrowable();
+                if (t != null) {
+                    t.printStackTrace(new PrintWriter(out));
+                } else { // deserialized event: only the rendering is available
+                    for (String line : ti.getThrowableStrRep())
+                        out.writeLine(line);
+                }
+            } catch (TraceWriter.Full ignored) {}
+            statement.setCharacterStream(index, new CharArrayReader(out.buf, 0, out.count), out.count);
+        }
+
+        @Override
+        void bind(PreparedStatement statement, int index, LoggingEvent event, String rendered) throws SQLException {
+            if (rendered == null)
+                statement.setNull(index, Types.CLOB);
+            else
+                statement.setCharacterStream(index, new StringReader(rendered), Math.min(rendered.length(), maxChars));
+        }
+    }
+
+    /*
+     * Collects a stack trace up to a character limit, then stops the printing by throwing Full.
+     * Line separators are written as \n, as %throwable renders them.
+     * A new buffer is needed per row as the driver may not read it until the batch is executed.
+     */
+    private static final class TraceWriter extends Writer {
+
+        static final class Full extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            Full() {
+                super(null, null, false, false);
+            }
+        }
+
+        private static final Full FULL = new Full();
+
+        private final int maxChars;
+        private char[] buf = new char[1024];
+        private int count;
+
+        TraceWriter(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                put(cbuf[i]);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                put(str.charAt(i));
+        }
+
+        void writeLine(String line) {
+            write(line, 0, line.length());
+            put('\n');
+        }
+
+        private void put(char c) {
+            if (c == '\r')
+                return;
+            if (count == maxChars)
+                throw FULL;
+            if (count == buf.length)
+                buf = Arrays.copyOf(buf, (int) Math.min(maxChars, 2L * buf.length));
+            buf[count++] = c;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
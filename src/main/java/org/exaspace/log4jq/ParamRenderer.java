@@ -0,0 +1,177 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.pattern.BridgePatternConverter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Renders the value of one SQL parameter from a logging event.
+ *
+ * sqlParams are compiled once into a renderer per column. A column which is just %p, %t, %c, %m,
+ * %L or %d (ISO8601) is read straight from the event without going through the pattern converters.
+ * Any other pattern is formatted by the same converters EnhancedPatternLayout uses, but into a
+ * buffer owned by the calling thread and reused for every event, rather than a new StringBuffer
+ * per call.
+ *
+ * %throwableHash (not a log4j conversion) renders the fingerprint of the event's throwable
+ * (see ThrowableCache).
+ *
+ * Renderers are thread safe.
+ */
+abstract class ParamRenderer {
+
+    /*
+     * Per thread buffers larger than this are dropped after use rather than kept (e.g. after a huge stack trace).
+     */
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private static final ThreadLocal<StringBuffer> BUFFER = new ThreadLocal<StringBuffer>() {
+        @Override
+        protected StringBuffer initialValue() {
+            return new StringBuffer(256);
+        }
+    };
+
+    private static final ThreadLocal<DateCache> DATE_CACHE = new ThreadLocal<DateCache>() {
+        @Override
+        protected DateCache initialValue() {
+            return new DateCache();
+        }
+    };
+
+    abstract String render(LoggingEvent event);
+
+    /**
+     * Compile a single sqlParams pattern (e.g. "%p" or "%F:%L").
+     */
+    static ParamRenderer compile(String pattern) {
+        switch (pattern) {
+            case "%p":
+                return LEVEL;
+            case "%t":
+                return THREAD;
+            case "%c":
+                return LOGGER;
+            case "%m":
+                return MESSAGE;
+            case "%L":
+                return LINE;
+            case "%d":
+            case "%d{ISO8601}":
+                return ISO8601_DATE;
+            case "%throwableHash":
+                return ThrowableCache.HASH;
+            default:
+                if (pattern.indexOf('%') < 0)
+                    return new Literal(pattern);
+                return new Converted(pattern);
+        }
+    }
+
+    static final ParamRenderer LEVEL = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return event.getLevel().toString();
+        }
+    };
+
+    static final ParamRenderer THREAD = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return event.getThreadName();
+        }
+    };
+
+    static final ParamRenderer LOGGER = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return event.getLoggerName();
+        }
+    };
+
+    static final ParamRenderer MESSAGE = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return String.valueOf(event.getRenderedMessage());
+        }
+    };
+
+    static final ParamRenderer LINE = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return event.getLocationInformation().getLineNumber();
+        }
+    };
+
+    /*
+     * yyyy-MM-dd HH:mm:ss,SSS in the default time zone, as for EnhancedPatternLayout's %d.
+     * Only the milliseconds change between events in the same second, so the rest is formatted once per second per thread.
+     */
+    static final ParamRenderer ISO8601_DATE = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            return DATE_CACHE.get().format(event.getTimeStamp());
+        }
+    };
+
+    private static final class Literal extends ParamRenderer {
+
+        private final String value;
+
+        Literal(String value) {
+            this.value = value;
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            return value;
+        }
+    }
+
+    private static final class Converted extends ParamRenderer {
+
+        private final BridgePatternConverter converter;
+
+        Converted(String pattern) {
+            this.converter = new BridgePatternConverter(pattern);
+        }
+
+        @Override
+        String render(LoggingEvent event) {
+            StringBuffer buf = BUFFER.get();
+            buf.setLength(0);
+            converter.format(buf, event);
+            String ret = buf.toString();
+            if (buf.capacity() > MAX_RETAINED_BUFFER)
+                BUFFER.remove();
+            return ret;
+        }
+    }
+
+    private static final class DateCache {
+
+        private final SimpleDateFormat prefixFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,");
+        private long second = Long.MIN_VALUE;
+        private char[] chars;
+        private int prefixLength;
+
+        String format(long timeStamp) {
+            long s = timeStamp >= 0 ? timeStamp / 1000L : (timeStamp - 999L) / 1000L;
+            if (s != second) {
+                String prefix = prefixFormat.format(new Date(s * 1000L));
+                prefixLength = prefix.length();
+                chars = new char[prefixLength + 3];
+                prefix.getChars(0, prefixLength, chars, 0);
+                second = s;
+            }
+            int millis = (int) (timeStamp - s * 1000L);
+            chars[prefixLength] = (char) ('0' + millis / 100);
+            chars[prefixLength + 1] = (char) ('0' + millis / 10 % 10);
+            chars[prefixLength + 2] = (char) ('0' + millis % 10);
+            return new String(chars);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.exaspace.log4jq;
+
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Runs COPY ... FROM STDIN through the PostgreSQL driver's CopyManager.
+ *
+ * The driver is used by reflection so that it is not a dependency of this library:
+ * it only has to be on the classpath when copySql is configured.
+ *
+ * Rows are written in the COPY text format: columns separated by tabs, rows ended by
+ * newlines, \N for null, and backslash escapes in values.
+ */
+class PgCopy {
+
+    private static final String PG_CONNECTION = "org.postgresql.PGConnection";
+
+    private final Object copyManager;
+    private final Method copyIn;
+
+    /*
+     * Not private (nor the class final) so that tests can stub copyIn().
+     */
+    PgCopy(Object copyManager, Method copyIn) {
+        this.copyManager = copyManager;
+        this.copyIn = copyIn;
+    }
+
+    /**
+     * The CopyManager of the connection (which may be wrapped, e.g. by a pool).
+     *
+     * @throws SQLException if it is not a PostgreSQL connection
+     */
+    static PgCopy forConnection(Connection connection) throws SQLException {
+        try {
+            Class<?> pgConnection = loadClass(connection);
+            Object pg = connection.unwrap(pgConnection);
+            Object copyManager = pgConnection.getMethod("getCopyAPI").invoke(pg);
+            Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+            return new PgCopy(copyManager, copyIn);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("copySql needs the PostgreSQL JDBC driver", e);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new SQLException("Unsupported PostgreSQL JDBC driver version for copySql", e);
+        } catch (InvocationTargetException e) {
+            throw sqlException(e);
+        }
+    }
+
+    private static Class<?> loadClass(Connection connection) throws ClassNotFoundException {
+        try {
+            return Class.forName(PG_CONNECTION, true, connection.getClass().getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return Class.forName(PG_CONNECTION);
+        }
+    }
+
+    /**
+     * Run the COPY statement with the given rows.
+     *
+     * @return the number of rows copied
+     */
+    long copyIn(String sql, Reader rows) throws SQLException {
+        try {
+            return (Long) copyIn.invoke(copyManager, sql, rows);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        } catch (InvocationTargetException e) {
+            throw sqlException(e);
+        }
+    }
+
+    private static SQLException sqlException(InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException)
+            return (SQLException) cause;
+        return new SQLException("COPY failed: " + cause, cause); // e.g. an IOException from the connection
+    }
+
+    /**
+     * Append a value (or \N for null) in the COPY text format.
+     */
+    static void appendValue(StringBuilder row, String value) {
+        if (value == null) {
+            row.append("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    row.append("\\\\");
+                    break;
+                case '\t':
+                    row.append("\\t");
+                    break;
+                case '\n':
+                    row.append("\\n");
+                    break;
+                case '\r':
+                    row.append("\\r");
+                    break;
+                default:
+                    row.append(c);
+            }
+        }
+    }
+
+}
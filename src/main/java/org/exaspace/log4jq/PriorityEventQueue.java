@@ -0,0 +1,158 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue engine which keeps a separate bounded queue for each group of levels
+ * so that high severity events never wait behind a backlog of low severity ones.
+ *
+ * There are three groups: ERROR and above, WARN, and INFO and below. Each has its
+ * own capacity, so a flood of INFO messages cannot use the capacity reserved for
+ * errors. The consumer drains the groups by weighted round robin: in each round it
+ * takes up to weights[i] events from group i, highest severity first, skipping
+ * empty groups.
+ *
+ * Events are only in order within each group. As the groups have separate capacities,
+ * evict() and evictOldest() (and so the dropLowerLevel and dropOldest overflow policies)
+ * only act within the group of the new event.
+ */
+final class PriorityEventQueue implements EventQueue {
+
+    static final int GROUPS = 3;
+
+    private final DequeEventQueue[] groups = new DequeEventQueue[GROUPS];
+    private final int[] weights;
+    private final int[] credits;
+    private int current;
+
+    /*
+     * One permit per queued event: consumers acquire a permit before taking an event,
+     * so a consumer holding a permit is guaranteed to find an event in some group.
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    PriorityEventQueue(int[] capacities, int[] weights) {
+        if (capacities.length != GROUPS || weights.length != GROUPS)
+            throw new IllegalArgumentException("Expected " + GROUPS + " capacities and weights");
+        for (int i = 0; i < GROUPS; i++)
+            groups[i] = new DequeEventQueue(capacities[i]);
+        this.weights = weights.clone();
+        this.credits = weights.clone();
+    }
+
+    /**
+     * The group for events of the given level: 0 for ERROR and above, 1 for WARN, 2 for everything else.
+     */
+    static int group(Level level) {
+        if (level.isGreaterOrEqual(Level.ERROR))
+            return 0;
+        if (level.isGreaterOrEqual(Level.WARN))
+            return 1;
+        return 2;
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        if (!groups[group(event.getLevel())].offer(event))
+            return false;
+        available.release();
+        return true;
+    }
+
+    /*
+     * Evicts from the group the new event would go to (as does evictOldest), as that is the group that is full:
+     * removing an event from another group would not make room. So only a lower level
+     * within the same group (e.g. DEBUG for an INFO event, or ERROR for a FATAL one) can be evicted.
+     */
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        if (!available.tryAcquire())
+            return null;
+        LoggingEvent event = groups[group(lowerThan)].evict(lowerThan);
+        if (event == null)
+            available.release();
+        return event;
+    }
+
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        if (!available.tryAcquire())
+            return null;
+        LoggingEvent evicted = groups[group(event.getLevel())].evictOldest(event);
+        if (evicted == null)
+            available.release();
+        return evicted;
+    }
+
+    @Override
+    public boolean canEvict() {
+        return true;
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        return available.tryAcquire() ? next() : null;
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return available.tryAcquire(timeout, unit) ? next() : null;
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        available.acquire();
+        return next();
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        int n = 0;
+        LoggingEvent event;
+        while (n < maxElements && (event = poll()) != null) {
+            c.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (DequeEventQueue q : groups)
+            size += q.size();
+        return size;
+    }
+
+    /**
+     * Number of events queued in the given group.
+     */
+    int size(int group) {
+        return groups[group].size();
+    }
+
+    /*
+     * Take the next event by weighted round robin. The caller holds a permit.
+     */
+    private synchronized LoggingEvent next() {
+        while (true) {
+            if (credits[current] > 0) {
+                LoggingEvent event = groups[current].poll();
+                if (event != null) {
+                    credits[current]--;
+                    return event;
+                }
+            }
+            if (++current == GROUPS) {
+                current = 0;
+                System.arraycopy(weights, 0, credits, 0, GROUPS);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package org.exaspace.log4jq;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent by application (producer) threads in each phase of AsyncJdbcAppender.append():
+ * waiting for the appender monitor, copying thread state or rendering params, getting the
+ * location information, and queueing.
+ *
+ * Each thread records into its own cell (so there is no contention, and only the owning thread
+ * ever writes to a cell). Cells of threads which have died are folded into a retired total.
+ */
+public final class ProducerTiming {
+
+    static final int MONITOR = 0;
+    static final int RENDER = 1;
+    static final int LOCATION = 2;
+    static final int ENQUEUE = 3;
+    static final int APPENDS = 4;
+    private static final int SLOTS = 5;
+
+    private static final String[] PHASE_NAMES = {"monitor", "render", "location", "enqueue"};
+
+    /*
+     * A producer thread's counters: nanoseconds per phase, and the number of appends.
+     */
+    static final class Cell {
+
+        private final String threadName;
+        private final WeakReference<Thread> thread;
+        private final AtomicLongArray counters = new AtomicLongArray(SLOTS);
+        private long enterNanos;
+
+        private Cell(Thread t) {
+            this.threadName = t.getName();
+            this.thread = new WeakReference<Thread>(t);
+        }
+
+        /*
+         * About to take the appender monitor.
+         */
+        void enter() {
+            enterNanos = System.nanoTime();
+        }
+
+        /*
+         * Done with the appender monitor, so an enter() not followed by start() is not counted later.
+         */
+        void leave() {
+            enterNanos = 0;
+        }
+
+        /*
+         * Start timing an append (recording the monitor wait, if enter() was called).
+         */
+        long start() {
+            final long now = System.nanoTime();
+            add(APPENDS, 1);
+            if (enterNanos != 0) {
+                add(MONITOR, now - enterNanos);
+                enterNanos = 0;
+            }
+            return now;
+        }
+
+        /*
+         * Add the time since the given start to the phase and return the current time.
+         */
+        long lap(int phase, long since) {
+            final long now = System.nanoTime();
+            add(phase, now - since);
+            return now;
+        }
+
+        private void add(int slot, long n) {
+            // single writer, so no need for an atomic read-modify-write
+            counters.lazySet(slot, counters.get(slot) + n);
+        }
+
+        long get(int slot) {
+            return counters.get(slot);
+        }
+
+        private long totalNanos() {
+            long total = 0;
+            for (int i = 0; i < APPENDS; i++)
+                total += counters.get(i);
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(threadName).append(": appends=").append(get(APPENDS));
+            for (int i = 0; i < APPENDS; i++)
+                sb.append(' ').append(PHASE_NAMES[i]).append('=').append(get(i) / 1000).append("us");
+            return sb.toString();
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Cell> cells = new ConcurrentLinkedQueue<Cell>();
+    private final AtomicLongArray retired = new AtomicLongArray(SLOTS);
+    private final ThreadLocal<Cell> current = new ThreadLocal<Cell>() {
+        @Override
+        protected Cell initialValue() {
+            Cell cell = new Cell(Thread.currentThread());
+            cells.add(cell);
+            return cell;
+        }
+    };
+
+    Cell current() {
+        return current.get();
+    }
+
+    /**
+     * Total over all producer threads of the given counter (a phase, in nanoseconds, or APPENDS).
+     */
+    long total(int slot) {
+        long total = retired.get(slot);
+        for (Cell cell : cells)
+            total += cell.get(slot);
+        return total;
+    }
+
+    public long appends() {
+        return total(APPENDS);
+    }
+
+    public long monitorNanos() {
+        return total(MONITOR);
+    }
+
+    public long renderNanos() {
+        return total(RENDER);
+    }
+
+    public long locationNanos() {
+        return total(LOCATION);
+    }
+
+    public long enqueueNanos() {
+        return total(ENQUEUE);
+    }
+
+    /**
+     * The live producer threads which have spent the most time in append(), most first.
+     */
+    public String[] topThreads(int n) {
+        retireDeadThreads();
+        List<Cell> live = new ArrayList<Cell>(cells);
+        Collections.sort(live, new Comparator<Cell>() {
+            @Override
+            public int compare(Cell a, Cell b) {
+                long x = a.totalNanos(), y = b.totalNanos();
+                return x < y ? 1 : x > y ? -1 : 0;
+            }
+        });
+        String[] top = new String[Math.min(n, live.size())];
+        for (int i = 0; i < top.length; i++)
+            top[i] = live.get(i).toString();
+        return top;
+    }
+
+    /*
+     * Fold the counters of threads which have died into the retired totals.
+     * A dead thread can no longer write to its cell, so this cannot lose counts.
+     */
+    void retireDeadThreads() {
+        for (Cell cell : cells) {
+            Thread t = cell.thread.get();
+            if ((t == null || !t.isAlive()) && cells.remove(cell)) {
+                for (int i = 0; i < SLOTS; i++)
+                    retired.addAndGet(i, cell.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A compact stand-in for a LoggingEvent whose SQL parameters have already been
+ * rendered (on the application thread).
+ *
+ * Only the rendered parameters and the fields needed to route the event (logger,
+ * level, timestamp, thread name) are kept: the message object, throwable, NDC and
+ * MDC copy of the original event are not referenced, so memory held per queued event
+ * is bounded by the size of the rendered columns.
+ */
+final class RenderedLoggingEvent extends LoggingEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] params;
+
+    RenderedLoggingEvent(LoggingEvent source, String[] params) {
+        super(source.fqnOfCategoryClass, source.getLogger(), source.timeStamp, source.getLevel(),
+                null, source.getThreadName(), null, null, null, null);
+        this.params = params;
+    }
+
+    /**
+     * The rendered value of each sqlParams pattern, in statement parameter order.
+     */
+    String[] getParams() {
+        return params;
+    }
+
+    /**
+     * A plain event whose message is the rendered parameters (comma separated), for appenders
+     * which do not know about sql params (e.g. a fallback file). Params bound straight from
+     * the event (null) are left out.
+     */
+    LoggingEvent withParamsAsMessage() {
+        StringBuilder message = new StringBuilder();
+        for (String param : params) {
+            if (param == null)
+                continue;
+            if (message.length() > 0)
+                message.append(", ");
+            message.append(param);
+        }
+        return new LoggingEvent(fqnOfCategoryClass, getLogger(), timeStamp, getLevel(),
+                message.toString(), getThreadName(), null, null, null, null);
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free queue engine: a preallocated bounded ring buffer.
+ *
+ * Producers claim a slot by CAS on the tail counter, then publish the event by
+ * advancing the slot's sequence number. Consumers (normally a single writer thread)
+ * claim slots in order by CAS on the head counter, so no locks are taken on either side.
+ * A consumer only parks when the buffer is empty, and producers unpark one waiting
+ * consumer per published event (see Waiters).
+ *
+ * The slot array is sized to the next power of two, but no more than the requested
+ * capacity is ever queued.
+ */
+final class RingBufferEventQueue implements EventQueue {
+
+    /*
+     * How many times the consumer re-checks an empty buffer before parking.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<LoggingEvent> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final Waiters waiters = new Waiters();
+
+    RingBufferEventQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Ring buffer capacity out of range: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.capacity = capacity;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<LoggingEvent>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        long pos = tail.get();
+        while (true) {
+            if (pos - head.get() >= capacity)
+                return false;
+            long seq = sequences.get(index(pos));
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = tail.get();
+            } else if (seq < pos) {
+                return false; // slot not yet released by the consumer
+            } else {
+                pos = tail.get(); // another producer claimed this slot
+            }
+        }
+        int i = index(pos);
+        slots.lazySet(i, event);
+        sequences.set(i, pos + 1); // publish
+        waiters.signal();
+        return true;
+    }
+
+    /*
+     * Events cannot be removed from the middle of the ring.
+     */
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        return null;
+    }
+
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        return poll();
+    }
+
+    @Override
+    public boolean canEvict() {
+        return false;
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        long pos = head.get();
+        while (true) {
+            long seq = sequences.get(index(pos));
+            if (seq == pos + 1) {
+                if (head.compareAndSet(pos, pos + 1))
+                    break;
+                pos = head.get();
+            } else if (seq < pos + 1) {
+                return null; // empty
+            } else {
+                pos = head.get(); // another consumer took this slot
+            }
+        }
+        int i = index(pos);
+        LoggingEvent event = slots.get(i);
+        slots.lazySet(i, null);
+        sequences.set(i, pos + mask + 1); // release the slot for the next lap
+        return event;
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        return await(false, 0L);
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        int n = 0;
+        LoggingEvent event;
+        while (n < maxElements && (event = poll()) != null) {
+            c.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    private LoggingEvent await(boolean timed, long nanos) throws InterruptedException {
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        int spins = 0;
+        while (true) {
+            LoggingEvent event = poll();
+            if (event != null)
+                return event;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0)
+                return null;
+            if (spins++ < SPIN_TRIES)
+                continue;
+            final Thread current = Thread.currentThread();
+            waiters.add(current);
+            try {
+                event = poll(); // re-check now producers can see we are waiting
+                if (event != null)
+                    return event;
+                waiters.park(this, Math.min(remaining, Waiters.MAX_PARK_NANOS));
+            } finally {
+                waiters.remove(current);
+            }
+        }
+    }
+
+    private int index(long pos) {
+        return (int) pos & mask;
+    }
+
+}
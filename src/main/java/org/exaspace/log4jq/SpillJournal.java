@@ -0,0 +1,390 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A FIFO journal of serialized LoggingEvents held in a directory of fixed size,
+ * memory-mapped segment files.
+ *
+ * Each segment starts with a header holding the acknowledged position, followed by
+ * records of [int length][serialized event]. The length is written after the
+ * record body, so a record is only visible once it is complete.
+ *
+ * Reading an event only advances an in-memory cursor. The writer acknowledges events
+ * with ack() once they have left for good (committed, rejected, or written to a
+ * fallback), and the stored position advances over the acknowledged prefix of the
+ * journal, so events still in flight are replayed when the journal is re-opened after
+ * a crash (delivery is at least once). Segments are deleted once fully acknowledged.
+ *
+ * The mapped segments are forced to disk when a segment fills up, at most every
+ * FORCE_INTERVAL_MILLIS otherwise, and on close().
+ *
+ * All methods are synchronized: the journal is only used when the memory queue
+ * has overflowed, so it is not on the fast path.
+ */
+final class SpillJournal {
+
+    private static final String SEGMENT_PREFIX = "log4jq-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_BYTES = 8; // [int ackPos][int reserved]
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+    private static final class Segment {
+        final File file;
+        final long sequence;
+        final MappedByteBuffer buffer;
+        int ackPos = HEADER_BYTES;
+        int readPos = HEADER_BYTES;
+        int writePos = HEADER_BYTES;
+        int count; // unread records
+        boolean dirty;
+
+        Segment(File file, long sequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    private long nextSequence;
+    private boolean closed;
+    private volatile int size;
+
+    /*
+     * Records are numbered in read order from zero each time the journal is opened:
+     * those from ackedSeq up to readSeq have been read but not yet acknowledged.
+     */
+    private long readSeq;
+    private long ackedSeq;
+    private final TreeSet<Long> ackedAhead = new TreeSet<Long>();
+    private final Map<LoggingEvent, Long> inFlight = new IdentityHashMap<LoggingEvent, Long>();
+    private volatile int unacked;
+    private long lastForceMillis = System.currentTimeMillis();
+
+    /**
+     * Open the journal in the given directory, recovering any unread events from
+     * existing segment files.
+     */
+    SpillJournal(File directory, int segmentBytes, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create spill directory " + directory);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes));
+        recover();
+    }
+
+    /**
+     * Append the event to the end of the journal.
+     *
+     * @return false if the event could not be stored (journal full or event not serializable)
+     */
+    synchronized boolean append(LoggingEvent event) {
+        if (closed)
+            return false;
+        final byte[] record;
+        try {
+            record = serialize(normalize(event));
+        } catch (IOException e) {
+            LogLog.error("Could not serialize log event for spill journal", e);
+            return false;
+        }
+        final int needed = 4 + record.length;
+        if (needed > segmentBytes - HEADER_BYTES)
+            return false;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePos + needed > segmentBytes) {
+            if (segments.size() >= maxSegments)
+                return false;
+            if (tail != null) {
+                tail.buffer.force(); // the full segment is durable before moving on
+                tail.dirty = false;
+            }
+            try {
+                tail = openSegment(nextSequence++, true);
+            } catch (IOException e) {
+                LogLog.error("Could not create spill journal segment", e);
+                return false;
+            }
+            segments.add(tail);
+            deleteAcknowledgedSegments();
+        }
+        tail.buffer.position(tail.writePos + 4);
+        tail.buffer.put(record);
+        tail.buffer.putInt(tail.writePos, record.length); // commit
+        tail.writePos += needed;
+        tail.count++;
+        tail.dirty = true;
+        size++;
+        forceIfDue();
+        return true;
+    }
+
+    /**
+     * Remove the oldest unread event in the journal, or return null if there is none.
+     * The event stays in the journal until it is acknowledged.
+     */
+    synchronized LoggingEvent poll() {
+        for (Segment s : segments) {
+            while (s.count > 0) {
+                int len = s.buffer.getInt(s.readPos);
+                byte[] record = new byte[len];
+                s.buffer.position(s.readPos + 4);
+                s.buffer.get(record);
+                s.readPos += 4 + len;
+                s.count--;
+                size--;
+                long seq = readSeq++;
+                try {
+                    LoggingEvent event = deserialize(record);
+                    inFlight.put(event, seq);
+                    unacked = inFlight.size();
+                    return event;
+                } catch (Exception e) {
+                    LogLog.error("Skipping unreadable record in spill journal " + s.file, e);
+                    acknowledge(seq);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Acknowledge that the given events (any of which may have come from this journal)
+     * have been written or otherwise disposed of, so they are not replayed after a restart.
+     */
+    void ack(Collection<? extends LoggingEvent> events) {
+        if (unacked == 0)
+            return; // none of them can be from the journal
+        synchronized (this) {
+            for (LoggingEvent event : events) {
+                Long seq = inFlight.remove(event);
+                if (seq != null)
+                    acknowledge(seq);
+            }
+            unacked = inFlight.size();
+            forceIfDue();
+        }
+    }
+
+    /**
+     * Number of unread events in the journal.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Flush the mapped segments to disk. Unacknowledged events will be recovered
+     * when the journal is next opened.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Segment s : segments)
+            s.buffer.force();
+        segments.clear();
+    }
+
+    /*
+     * Mark the record as acknowledged, and advance the stored position over the
+     * acknowledged prefix of the journal.
+     */
+    private void acknowledge(long seq) {
+        ackedAhead.add(seq);
+        while (!ackedAhead.isEmpty() && ackedAhead.first() == ackedSeq) {
+            ackedAhead.pollFirst();
+            ackedSeq++;
+            Segment head = segments.peekFirst();
+            while (head.ackPos == head.readPos) { // only when fully read, so never the tail
+                segments.removeFirst();
+                delete(head);
+                head = segments.peekFirst();
+            }
+            head.ackPos += 4 + head.buffer.getInt(head.ackPos);
+            head.buffer.putInt(0, head.ackPos);
+            head.dirty = true;
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    /*
+     * Delete the segments at the head of the journal which are fully acknowledged,
+     * apart from the one currently being written.
+     */
+    private void deleteAcknowledgedSegments() {
+        Segment head;
+        while ((head = segments.peekFirst()) != null && head != segments.peekLast() && head.ackPos == head.writePos) {
+            segments.removeFirst();
+            delete(head);
+        }
+    }
+
+    private void forceIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastForceMillis < FORCE_INTERVAL_MILLIS)
+            return;
+        lastForceMillis = now;
+        for (Segment s : segments) {
+            if (s.dirty) {
+                s.buffer.force();
+                s.dirty = false;
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new IOException("Could not list spill directory " + directory);
+        Arrays.sort(files); // names are zero padded sequence numbers
+        for (File f : files) {
+            String name = f.getName();
+            long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            if (f.length() != segmentBytes) {
+                LogLog.warn("Ignoring spill journal segment of unexpected size " + f);
+                continue;
+            }
+            Segment s = openSegment(sequence, false);
+            s.ackPos = s.readPos = Math.max(HEADER_BYTES, s.buffer.getInt(0));
+            int pos = HEADER_BYTES;
+            while (pos + 4 <= segmentBytes) {
+                int len = s.buffer.getInt(pos);
+                if (len <= 0 || pos + 4 + len > segmentBytes)
+                    break;
+                pos += 4 + len;
+                if (pos > s.readPos)
+                    s.count++;
+            }
+            s.writePos = pos;
+            nextSequence = sequence + 1;
+            if (s.count == 0) {
+                delete(s);
+            } else {
+                segments.add(s);
+                size += s.count;
+            }
+        }
+    }
+
+    private Segment openSegment(long sequence, boolean create) throws IOException {
+        File f = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (create)
+                raf.setLength(segmentBytes);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (create)
+                buffer.putInt(0, HEADER_BYTES);
+            return new Segment(f, sequence, buffer);
+        } finally {
+            raf.close(); // the mapping remains valid
+        }
+    }
+
+    private void delete(Segment s) {
+        // may fail while the file is still mapped on some platforms - it will be removed on next recovery
+        if (!s.file.delete())
+            LogLog.debug("Could not delete spill journal segment " + s.file);
+    }
+
+    /*
+     * Copy the event using only strings, so that arbitrary message and MDC objects
+     * do not need to be serializable (or readable back).
+     */
+    private static LoggingEvent normalize(LoggingEvent event) {
+        if (event instanceof RenderedLoggingEvent)
+            return event;
+        if (event instanceof CoalescedLoggingEvent)
+            ((CoalescedLoggingEvent) event).seal(); // the repeat count is final once on disk
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) event.getProperties()).entrySet()) {
+            if (e.getValue() != null)
+                properties.put(String.valueOf(e.getKey()), String.valueOf(e.getValue()));
+        }
+        String[] trace = event.getThrowableStrRep();
+        return new LoggingEvent(event.fqnOfCategoryClass, event.getLogger(), event.timeStamp, event.getLevel(),
+                event.getRenderedMessage(), event.getThreadName(),
+                trace == null ? null : new ThrowableInformation(trace), event.getNDC(),
+                event.locationInformationExists() ? event.getLocationInformation() : null, properties);
+    }
+
+    private byte[] serialize(LoggingEvent event) throws IOException {
+        bytes.reset();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(event);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static LoggingEvent deserialize(byte[] record) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new EventInputStream(new ByteArrayInputStream(record));
+        try {
+            return (LoggingEvent) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Only allow the classes that make up a normalized LoggingEvent to be read back.
+     */
+    private static final class EventInputStream extends ObjectInputStream {
+
+        private static final List<String> ALLOWED = Arrays.asList(
+                "java.lang.String", "java.lang.Number", "java.lang.Integer", "java.lang.Long",
+                "java.util.Hashtable", "java.util.HashMap");
+
+        EventInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            while (name.startsWith("["))
+                name = name.substring(1);
+            if (name.startsWith("L") && name.endsWith(";"))
+                name = name.substring(1, name.length() - 1);
+            if (name.length() == 1 || ALLOWED.contains(name)
+                    || name.startsWith("org.apache.log4j.") || name.startsWith("org.exaspace.log4jq.")) {
+                return super.resolveClass(desc);
+            }
+            throw new InvalidClassException(desc.getName(), "not allowed in spill journal");
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue decorator which overflows to a disk journal once the memory queue passes
+ * a high-water mark (or rejects an event).
+ *
+ * While the journal holds any events, new events are appended to it rather than
+ * to the memory queue, and the consumer drains the memory queue before the journal,
+ * so events are still delivered in order.
+ */
+final class SpillingEventQueue implements EventQueue {
+
+    /*
+     * How often a waiting consumer checks the journal (producers only signal the memory queue).
+     */
+    private static final long JOURNAL_CHECK_MILLIS = 100;
+
+    private final EventQueue memory;
+    private final SpillJournal journal;
+    private final int highWaterMark;
+
+    SpillingEventQueue(EventQueue memory, SpillJournal journal, int highWaterMark) {
+        this.memory = memory;
+        this.journal = journal;
+        this.highWaterMark = highWaterMark;
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        if (journal.size() == 0 && memory.size() < highWaterMark && memory.offer(event))
+            return true;
+        return journal.append(event);
+    }
+
+    /*
+     * Only the memory queue is searched: events written to disk are never evicted.
+     */
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        return memory.evict(lowerThan);
+    }
+
+    /*
+     * Evicts from where offer() would put the event: the journal while it holds events, else the memory queue.
+     */
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        return journal.size() > 0 ? journal.poll() : memory.evictOldest(event);
+    }
+
+    @Override
+    public boolean canEvict() {
+        return memory.canEvict();
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        LoggingEvent event = memory.poll();
+        if (event == null && journal.size() > 0)
+            event = journal.poll();
+        return event;
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            LoggingEvent event = poll();
+            if (event != null)
+                return event;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return null;
+            event = memory.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(JOURNAL_CHECK_MILLIS)),
+                    TimeUnit.NANOSECONDS);
+            if (event != null)
+                return event;
+        }
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        while (true) {
+            LoggingEvent event = poll();
+            if (event != null)
+                return event;
+            event = memory.poll(JOURNAL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            if (event != null)
+                return event;
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        int n = memory.drainTo(c, maxElements);
+        LoggingEvent event;
+        while (n < maxElements && journal.size() > 0 && (event = journal.poll()) != null) {
+            c.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return memory.size() + journal.size();
+    }
+
+    /**
+     * The events have been written (or otherwise disposed of): release any that came
+     * from the journal (see SpillJournal.ack()).
+     */
+    void ack(Collection<? extends LoggingEvent> events) {
+        journal.ack(events);
+    }
+
+    /**
+     * Number of events currently held in the disk journal.
+     */
+    int spilled() {
+        return journal.size();
+    }
+
+    void close() {
+        journal.close();
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue engine which spreads producers over several lock-free ring buffers (stripes)
+ * so that there is no single hand-off point for every logging thread in the JVM.
+ *
+ * Each producer thread always offers to the stripe chosen by its thread id, so with at
+ * least as many stripes as logging threads each stripe has a single producer and its
+ * tail counter is never contended. The capacity is divided evenly between the stripes,
+ * and a producer whose stripe is full does not use space in the others.
+ *
+ * Consumers drain the stripes round robin, so events are only in order per stripe
+ * (and so per thread). With merge enabled the consumer instead holds the head event
+ * of every stripe and always returns the oldest by timestamp, restoring the overall
+ * order of the events queued at the time (at the cost of serializing consumers).
+ */
+final class StripedEventQueue implements EventQueue {
+
+    /*
+     * How many times the consumer re-checks empty stripes before parking.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    private final RingBufferEventQueue[] stripes;
+    private final int mask;
+    private final boolean merge;
+    private final Waiters waiters = new Waiters();
+
+    /*
+     * Round robin position of the next stripe to poll (racy with several consumers, which is harmless).
+     */
+    private int next;
+
+    /*
+     * With merge, the head event taken from each stripe but not yet returned (guarded by this).
+     */
+    private final LoggingEvent[] heads;
+    private volatile int held;
+
+    /**
+     * @param stripes number of stripes, rounded up to a power of two
+     * @param capacity total capacity, divided between the stripes
+     * @param merge return events in timestamp order across stripes
+     */
+    StripedEventQueue(int stripes, int capacity, boolean merge) {
+        if (stripes < 1 || stripes > 1 << 16)
+            throw new IllegalArgumentException("Stripe count out of range: " + stripes);
+        int n = Integer.highestOneBit(stripes);
+        if (n < stripes)
+            n <<= 1;
+        int stripeCapacity = Math.max(1, (capacity + n - 1) / n);
+        this.stripes = new RingBufferEventQueue[n];
+        for (int i = 0; i < n; i++)
+            this.stripes[i] = new RingBufferEventQueue(stripeCapacity);
+        this.mask = n - 1;
+        this.merge = merge;
+        this.heads = merge ? new LoggingEvent[n] : null;
+    }
+
+    /**
+     * The stripe the given thread offers to. Thread ids are allocated sequentially,
+     * so the low bits spread concurrently running threads evenly.
+     */
+    int stripe(Thread thread) {
+        return (int) thread.getId() & mask;
+    }
+
+    int stripes() {
+        return stripes.length;
+    }
+
+    @Override
+    public boolean offer(LoggingEvent event) {
+        if (!stripes[stripe(Thread.currentThread())].offer(event))
+            return false;
+        waiters.signal();
+        return true;
+    }
+
+    /*
+     * Events cannot be removed from the middle of the rings.
+     */
+    @Override
+    public LoggingEvent evict(Level lowerThan) {
+        return null;
+    }
+
+    /*
+     * Takes from the calling thread's own stripe, which is the one that is full:
+     * taking from another would not make room, and would drop other threads' events.
+     */
+    @Override
+    public LoggingEvent evictOldest(LoggingEvent event) {
+        return stripes[stripe(Thread.currentThread())].poll();
+    }
+
+    @Override
+    public boolean canEvict() {
+        return false;
+    }
+
+    @Override
+    public LoggingEvent poll() {
+        return merge ? pollOldest() : pollNext();
+    }
+
+    @Override
+    public LoggingEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public LoggingEvent take() throws InterruptedException {
+        return await(false, 0L);
+    }
+
+    @Override
+    public int drainTo(Collection<? super LoggingEvent> c, int maxElements) {
+        int n = 0;
+        LoggingEvent event;
+        while (n < maxElements && (event = poll()) != null) {
+            c.add(event);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        int size = held;
+        for (RingBufferEventQueue stripe : stripes)
+            size += stripe.size();
+        return size;
+    }
+
+    /*
+     * Take from the next non-empty stripe in round robin order.
+     */
+    private LoggingEvent pollNext() {
+        int start = next;
+        for (int i = 0; i < stripes.length; i++) {
+            int s = (start + i) & mask;
+            LoggingEvent event = stripes[s].poll();
+            if (event != null) {
+                next = s + 1;
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Refill the held head of each stripe and return the oldest.
+     */
+    private synchronized LoggingEvent pollOldest() {
+        int oldest = -1;
+        int count = 0;
+        for (int s = 0; s < heads.length; s++) {
+            if (heads[s] == null)
+                heads[s] = stripes[s].poll();
+            if (heads[s] != null) {
+                count++;
+                if (oldest < 0 || heads[s].getTimeStamp() < heads[oldest].getTimeStamp())
+                    oldest = s;
+            }
+        }
+        if (oldest < 0) {
+            held = 0;
+            return null;
+        }
+        LoggingEvent event = heads[oldest];
+        heads[oldest] = null;
+        held = count - 1;
+        return event;
+    }
+
+    private LoggingEvent await(boolean timed, long nanos) throws InterruptedException {
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        int spins = 0;
+        while (true) {
+            LoggingEvent event = poll();
+            if (event != null)
+                return event;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0)
+                return null;
+            if (spins++ < SPIN_TRIES)
+                continue;
+            final Thread current = Thread.currentThread();
+            waiters.add(current);
+            try {
+                event = poll(); // re-check now producers can see we are waiting
+                if (event != null)
+                    return event;
+                waiters.park(this, Math.min(remaining, Waiters.MAX_PARK_NANOS));
+            } finally {
+                waiters.remove(current);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders %throwable once per distinct stack trace.
+ *
+ * Throwables are fingerprinted by everything printStackTrace() prints (class, message and frames
+ * of the throwable, its causes and suppressed exceptions) with a 64-bit hash, which is much cheaper
+ * than rendering. When the same failure is logged over and over, every event after the first reuses
+ * the cached rendering (the same String instance).
+ *
+ * The fingerprint is also what %throwableHash renders, to reference traces written once to a side
+ * table (see throwableSql in DiscardingJdbcAppender).
+ *
+ * Thread safe.
+ */
+final class ThrowableCache extends ParamRenderer {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Renders the fingerprint of the event's throwable, or null if there is none.
+     */
+    static final ParamRenderer HASH = new ParamRenderer() {
+        @Override
+        String render(LoggingEvent event) {
+            ThrowableInformation ti = event.getThrowableInformation();
+            return ti == null ? null : fingerprint(ti);
+        }
+    };
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param maxEntries how many distinct renderings to keep (the cache is emptied when full)
+     */
+    ThrowableCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The %throwable rendering of the event's throwable, or "" if there is none.
+     */
+    @Override
+    String render(LoggingEvent event) {
+        ThrowableInformation ti = event.getThrowableInformation();
+        return ti == null ? "" : render(ti);
+    }
+
+    String render(ThrowableInformation ti) {
+        if (ti.getThrowable() == null) // deserialized event: only the rendering is available
+            return join(ti.getThrowableStrRep());
+        String key = fingerprint(ti);
+        String rendered = cache.get(key);
+        if (rendered == null) {
+            rendered = join(ti.getThrowableStrRep());
+            if (maxEntries > 0) {
+                if (cache.size() >= maxEntries)
+                    cache.clear();
+                cache.put(key, rendered);
+            }
+        }
+        return rendered;
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    /*
+     * Lines separated by \n rather than Layout.LINE_SEP, as the clob binder streams an uncached
+     * %throwable (see ParamBinder), so a trace is written the same whether or not it was cached.
+     */
+    private static String join(String[] lines) {
+        int length = 0;
+        for (String line : lines)
+            length += line.length() + 1;
+        StringBuilder sb = new StringBuilder(length);
+        for (String line : lines)
+            sb.append(line).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * A 16 hex digit hash of the throwable's stack trace (or of its rendering, if the throwable
+     * is not available).
+     */
+    static String fingerprint(ThrowableInformation ti) {
+        Throwable t = ti.getThrowable();
+        long h = FNV_OFFSET;
+        if (t == null) {
+            for (String line : ti.getThrowableStrRep())
+                h = hash(h, line);
+        } else {
+            h = hash(h, t, Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>()));
+        }
+        String hex = Long.toHexString(h);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static long hash(long h, Throwable t, Set<Throwable> seen) {
+        if (!seen.add(t)) // printStackTrace prints a circular reference marker
+            return hash(h, '@');
+        h = hash(h, t.toString());
+        for (StackTraceElement frame : t.getStackTrace()) {
+            h = hash(h, frame.getClassName());
+            h = hash(h, frame.getMethodName());
+            h = hash(h, frame.getFileName());
+            h = hash(h, frame.getLineNumber());
+        }
+        for (Throwable suppressed : t.getSuppressed())
+            h = hash(hash(h, 'S'), suppressed, seen);
+        Throwable cause = t.getCause();
+        if (cause != null)
+            h = hash(hash(h, 'C'), cause, seen);
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null)
+            return hash(h, 0);
+        for (int i = 0; i < s.length(); i++)
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        return hash(h, '\n');
+    }
+
+    private static long hash(long h, int n) {
+        for (int i = 0; i < 4; i++) {
+            h = (h ^ (n & 0xff)) * FNV_PRIME;
+            n >>>= 8;
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the log writer thread waits for events when the queue is empty.
+ *
+ * <ul>
+ * <li>blocking - park until a producer signals (lowest CPU, highest wake-up latency)</li>
+ * <li>sleeping - spin, then yield, then sleep with exponential backoff up to a maximum
+ * (good for batching: the writer tends to wake up to a full batch)</li>
+ * <li>yielding - spin, then Thread.yield() (low latency, burns a core when idle)</li>
+ * <li>busySpin - spin continuously (lowest latency, burns a core at all times)</li>
+ * </ul>
+ */
+abstract class WaitStrategy {
+
+    static final String BLOCKING = "blocking";
+    static final String SLEEPING = "sleeping";
+    static final String YIELDING = "yielding";
+    static final String BUSY_SPIN = "busySpin";
+
+    /*
+     * Number of empty polls before the yielding and sleeping strategies back off.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * Create the named strategy, or return null if the name is not recognised.
+     */
+    static WaitStrategy forName(String name, long maxSleepMillis) {
+        if (BLOCKING.equalsIgnoreCase(name))
+            return new Blocking();
+        if (SLEEPING.equalsIgnoreCase(name))
+            return new Sleeping(TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxSleepMillis)));
+        if (YIELDING.equalsIgnoreCase(name))
+            return new Yielding();
+        if (BUSY_SPIN.equalsIgnoreCase(name))
+            return new BusySpin();
+        return null;
+    }
+
+    /**
+     * Remove the next event, waiting as long as necessary for one to arrive.
+     */
+    abstract LoggingEvent take(EventQueue queue) throws InterruptedException;
+
+    /**
+     * Remove the next event, waiting up to the given time for one to arrive.
+     */
+    abstract LoggingEvent poll(EventQueue queue, long timeout, TimeUnit unit) throws InterruptedException;
+
+    static final class Blocking extends WaitStrategy {
+
+        @Override
+        LoggingEvent take(EventQueue queue) throws InterruptedException {
+            return queue.take();
+        }
+
+        @Override
+        LoggingEvent poll(EventQueue queue, long timeout, TimeUnit unit) throws InterruptedException {
+            return queue.poll(timeout, unit);
+        }
+    }
+
+    /**
+     * The strategies which poll the queue without blocking, backing off between empty polls.
+     */
+    abstract static class Polling extends WaitStrategy {
+
+        @Override
+        LoggingEvent take(EventQueue queue) throws InterruptedException {
+            return poll(queue, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        LoggingEvent poll(EventQueue queue, long timeout, TimeUnit unit) throws InterruptedException {
+            final long nanos = unit.toNanos(timeout);
+            final long start = System.nanoTime();
+            int counter = 0;
+            while (true) {
+                LoggingEvent event = queue.poll();
+                if (event != null)
+                    return event;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if (nanos != Long.MAX_VALUE && System.nanoTime() - start >= nanos)
+                    return null;
+                counter = idle(counter);
+            }
+        }
+
+        /**
+         * Called after each empty poll.
+         *
+         * @return the new value of the counter (starting from zero on each wait)
+         */
+        abstract int idle(int counter);
+    }
+
+    static final class Sleeping extends Polling {
+
+        private static final long MIN_SLEEP_NANOS = 50000;
+
+        private final long maxSleepNanos;
+
+        Sleeping(long maxSleepNanos) {
+            this.maxSleepNanos = maxSleepNanos;
+        }
+
+        @Override
+        int idle(int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            if (counter < 2 * SPIN_TRIES) {
+                Thread.yield();
+                return counter + 1;
+            }
+            int doublings = counter - 2 * SPIN_TRIES;
+            LockSupport.parkNanos(Math.min(MIN_SLEEP_NANOS << doublings, maxSleepNanos));
+            return Math.min(counter + 1, 2 * SPIN_TRIES + 30);
+        }
+    }
+
+    static final class Yielding extends Polling {
+
+        @Override
+        int idle(int counter) {
+            if (counter < SPIN_TRIES)
+                return counter + 1;
+            Thread.yield();
+            return counter;
+        }
+    }
+
+    static final class BusySpin extends Polling {
+
+        @Override
+        int idle(int counter) {
+            return counter;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.exaspace.log4jq;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The consumer threads parked on an empty lock-free queue. Producers call signal() after
+ * publishing an event, which unparks one waiting consumer, so any number of consumers can
+ * wait without polling.
+ *
+ * A consumer must register with add(), re-check the queue, and only then park: either the
+ * re-check sees the event, or the producer publishing it sees the registration.
+ */
+final class Waiters {
+
+    /*
+     * Longest single park, as a backstop against a missed signal.
+     */
+    static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentLinkedQueue<Thread> threads = new ConcurrentLinkedQueue<Thread>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    void add(Thread thread) {
+        threads.add(thread);
+        count.incrementAndGet();
+    }
+
+    void remove(Thread thread) {
+        threads.remove(thread); // may already have been taken by signal()
+        count.decrementAndGet();
+    }
+
+    /**
+     * Park the current (registered) thread for at most the given time.
+     */
+    void park(Object blocker, long nanos) {
+        LockSupport.parkNanos(blocker, nanos);
+    }
+
+    /**
+     * Unpark one waiting consumer, if there is one. Cheap when nobody is waiting.
+     */
+    void signal() {
+        if (count.get() == 0)
+            return;
+        Thread thread = threads.poll();
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java 9+ version of CallerLocator (packaged in META-INF/versions/9 of the multi-release jar).
+ *
+ * StackWalker walks the stack lazily, without building a StackTraceElement (and its strings)
+ * for every frame, and stops CALLER_LOOKAHEAD frames past the caller rather than at the bottom
+ * of the stack: only the caller's frame is resolved.
+ */
+final class CallerLocator {
+
+    private static final int MAX_CACHED_CALL_SITES = 8192;
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    /*
+     * How many frames past a candidate caller to look for another frame of the logger class
+     * (a logging call which passes through other classes and back) before taking the candidate.
+     */
+    private static final int CALLER_LOOKAHEAD = 16;
+
+    /*
+     * Call site cache key (StackFrame has no equals).
+     */
+    private static final class CallSite {
+
+        private final String className;
+        private final String methodName;
+        private final int line;
+
+        CallSite(StackWalker.StackFrame frame) {
+            this.className = frame.getClassName();
+            this.methodName = frame.getMethodName();
+            this.line = frame.getLineNumber();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CallSite))
+                return false;
+            CallSite other = (CallSite) o;
+            return line == other.line && className.equals(other.className) && methodName.equals(other.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(className, methodName, line);
+        }
+    }
+
+    private final ConcurrentHashMap<CallSite, LocationInfo> cache = new ConcurrentHashMap<>();
+
+    LoggingEvent withLocation(LoggingEvent event) {
+        return new LoggingEvent(event.fqnOfCategoryClass, event.getLogger(), event.timeStamp, event.getLevel(),
+                event.getMessage(), event.getThreadName(), event.getThrowableInformation(), event.getNDC(),
+                locate(event.fqnOfCategoryClass), event.getProperties());
+    }
+
+    /**
+     * The location of the caller of fqnOfCallerClass, as in log4j (and the Java 7 version):
+     * the frame after the outermost frame of that class, as long as that is within
+     * CALLER_LOOKAHEAD frames of the previous one.
+     */
+    LocationInfo locate(String fqnOfCallerClass) {
+        StackWalker.StackFrame caller = WALKER.walk(frames -> {
+            StackWalker.StackFrame found = null;
+            boolean afterLogger = false;
+            int sinceFound = 0;
+            for (Iterator<StackWalker.StackFrame> it = frames.iterator(); it.hasNext(); ) {
+                StackWalker.StackFrame f = it.next();
+                boolean logger = fqnOfCallerClass.equals(f.getClassName());
+                if (afterLogger && !logger) {
+                    found = f;
+                    sinceFound = 0;
+                } else if (found != null && !logger && ++sinceFound > CALLER_LOOKAHEAD) {
+                    break;
+                }
+                afterLogger = logger;
+            }
+            return found;
+        });
+        return caller == null ? LocationInfo.NA_LOCATION_INFO : resolve(caller);
+    }
+
+    private LocationInfo resolve(StackWalker.StackFrame frame) {
+        CallSite site = new CallSite(frame);
+        LocationInfo info = cache.get(site);
+        if (info == null) {
+            if (cache.size() >= MAX_CACHED_CALL_SITES)
+                cache.clear();
+            info = new LocationInfo(frame.getFileName(), frame.getClassName(), frame.getMethodName(),
+                    String.valueOf(frame.getLineNumber()));
+            cache.put(site, info);
+        }
+        return info;
+    }
+
+}
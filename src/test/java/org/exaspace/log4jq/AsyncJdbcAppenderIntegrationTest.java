@@ -8,13 +8,26 @@ import org.exaspace.log4jq.support.JdbcHelper;
 import org.exaspace.log4jq.support.Log4jSupport;
 import org.exaspace.log4jq.support.LogMessage;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class AsyncJdbcAppenderIntegrationTest {
 
@@ -42,6 +55,9 @@ public class AsyncJdbcAppenderIntegrationTest {
         asyncProps.put("gracefulShutdownTimeMillis", "600000");
     }
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     private JdbcHelper db;
 
     @Before
@@ -58,6 +74,7 @@ public class AsyncJdbcAppenderIntegrationTest {
 
     @After
     public void tearDown() throws Exception {
+        LogManager.resetConfiguration();
         db.close();
     }
 
@@ -81,6 +98,29 @@ public class AsyncJdbcAppenderIntegrationTest {
         assertEquals("", msg.trace);
     }
 
+    @Test
+    public void shouldLogAllMessageFieldsWhenParamsArePreRendered() throws Exception {
+        // Given
+        asyncProps.put("preRenderParams", "true");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+
+        // When
+        NDC.push("some NDC message");
+        Logger.getRootLogger().error("some message", new Exception("some exception"));
+        NDC.pop();
+
+        Thread.sleep(200); // allow plenty of time for the async db write to complete
+
+        // Then
+        LogMessage msg = db.selectAllLogMessages(sql.selectAll()).get(0);
+        assertEquals("root", msg.logger);
+        assertEquals("ERROR", msg.priority);
+        assertEquals(Thread.currentThread().getName(), msg.threadId);
+        assertEquals("some NDC message", msg.context);
+        assertEquals("some message", msg.message);
+        assertTrue(msg.trace.startsWith("java.lang.Exception: some exception"));
+    }
+
     @Test
     public void shouldRecoverAfterSqlFailuresAndNotDiscardAnyMessages() throws Exception {
             // Given
@@ -108,6 +148,208 @@ public class AsyncJdbcAppenderIntegrationTest {
             assertEquals(3, msgs.size());
     }
 
+    @Test
+    public void shouldWriteMessagesInBatches() throws Exception {
+        // Given
+        asyncProps.put("batchSize", "50");
+        asyncProps.put("maxBatchLatencyMillis", "20");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        Logger logger = Logger.getRootLogger();
+
+        // When
+        for (int i = 0; i < 120; i++)
+            logger.info("message " + i);
+        Thread.sleep(500); // allow plenty of time for the async db writes to complete
+
+        // Then
+        Set<String> messages = new HashSet<>();
+        for (LogMessage msg : db.selectAllLogMessages(sql.selectAll()))
+            messages.add(msg.message);
+        assertEquals(120, messages.size());
+        for (int i = 0; i < 120; i++)
+            assertTrue(messages.contains("message " + i));
+    }
+
+    @Test
+    public void shouldSkipARowTheDatabaseRejectsAndWriteTheRestOfTheBatch() throws Exception {
+        // Given
+        asyncProps.put("batchSize", "20");
+        asyncProps.put("maxBatchLatencyMillis", "100");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        Logger logger = Logger.getRootLogger();
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            tooLong.append('x'); // the Message column is varchar(255)
+
+        // When
+        for (int i = 0; i < 5; i++)
+            logger.info("message " + i);
+        logger.info(tooLong);
+        for (int i = 5; i < 10; i++)
+            logger.info("message " + i);
+        Thread.sleep(1000); // allow plenty of time for the async db writes to complete
+        logger.info("message after");
+        Thread.sleep(200);
+
+        // Then
+        Set<String> messages = new HashSet<>();
+        for (LogMessage msg : db.selectAllLogMessages(sql.selectAll()))
+            messages.add(msg.message);
+        assertEquals(11, messages.size());
+        for (int i = 0; i < 10; i++)
+            assertTrue(messages.contains("message " + i));
+        assertTrue(messages.contains("message after"));
+    }
+
+    @Test
+    public void shouldWriteTheRepeatCountOfCoalescedMessages() throws Exception {
+        // Given
+        jdbcProps.put("sqlParams", "%c, %p, %t, %X{log4jq.repeatCount}, %m, %throwable"); // count in the Context column
+        asyncProps.put("coalesceWindowMillis", "60000");
+        asyncProps.put("batchSize", "1"); // so repeats arrive while the writer is busy with a row
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        Logger logger = Logger.getRootLogger();
+
+        // When
+        for (int i = 0; i < 2000; i++)
+            logger.warn("retrying");
+        Thread.sleep(500); // allow plenty of time for the async db writes to complete
+
+        // Then
+        List<LogMessage> msgs = db.selectAllLogMessages(sql.selectAll());
+        int total = 0, maxCount = 0;
+        for (LogMessage msg : msgs) {
+            assertEquals("retrying", msg.message);
+            int count = Integer.parseInt(msg.context);
+            total += count;
+            maxCount = Math.max(maxCount, count);
+        }
+        assertEquals(2000, total);
+        assertTrue(maxCount > 1);
+        assertTrue(msgs.size() < 2000);
+    }
+
+    @Test
+    public void shouldWriteAllMessagesUsingSeveralWriterThreads() throws Exception {
+        // Given
+        asyncProps.put("writerThreads", "3");
+        asyncProps.put("batchSize", "10");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        Logger logger = Logger.getRootLogger();
+
+        // When
+        for (int i = 0; i < 300; i++)
+            logger.info("message " + i);
+        Thread.sleep(500); // allow plenty of time for the async db writes to complete
+
+        // Then
+        Set<String> messages = new HashSet<>();
+        for (LogMessage msg : db.selectAllLogMessages(sql.selectAll()))
+            messages.add(msg.message);
+        assertEquals(300, messages.size());
+    }
+
+    @Test
+    public void shouldWriteEveryBatchOnVirtualThreadsAndDrainThemOnShutdown() throws Exception {
+        // Given
+        asyncProps.put("virtualThreads", "true"); // platform threads before Java 21
+        asyncProps.put("maxConcurrentInserts", "4");
+        asyncProps.put("batchSize", "10");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        Logger logger = Logger.getRootLogger();
+
+        // When
+        for (int i = 0; i < 500; i++)
+            logger.info("message " + i);
+        LogManager.resetConfiguration(); // close at once, with batches still queued and in flight
+
+        // Then
+        Set<String> messages = new HashSet<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (messages.size() < 500 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            messages.clear();
+            for (LogMessage msg : db.selectAllLogMessages(sql.selectAll()))
+                messages.add(msg.message);
+        }
+        assertEquals(500, messages.size());
+        for (int i = 0; i < 500; i++)
+            assertTrue(messages.contains("message " + i));
+    }
+
+    @Test
+    public void shouldPublishMetricsToJmxAndTheMetricsListener() throws Exception {
+        // Given
+        asyncProps.put("name", "JDBC_METRICS");
+        asyncProps.put("jmx", "true");
+        asyncProps.put("metricsListener", RecordingMetricsListener.class.getName());
+        asyncProps.put("metricsIntervalMillis", "50");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, mergeProperties(jdbcProps, asyncProps));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.exaspace.log4jq:type=AsyncJdbcAppender,name=" + ObjectName.quote("JDBC_METRICS"));
+        assertTrue(server.isRegistered(name));
+
+        // When
+        for (int i = 0; i < 25; i++)
+            Logger.getRootLogger().info("message " + i);
+
+        // Then
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            AppenderMetrics m = RecordingMetricsListener.metrics;
+            if (m != null && m.getWritten() == 25)
+                break;
+            Thread.sleep(20);
+        }
+        assertEquals("JDBC_METRICS", RecordingMetricsListener.appenderName);
+        assertEquals(25L, server.getAttribute(name, "Enqueued"));
+        assertEquals(25L, server.getAttribute(name, "Written"));
+        LogManager.resetConfiguration();
+        assertFalse(server.isRegistered(name));
+    }
+
+    public static class RecordingMetricsListener implements MetricsListener {
+
+        static volatile String appenderName;
+        static volatile AppenderMetrics metrics;
+
+        @Override
+        public void onMetrics(String appenderName, AppenderMetrics metrics) {
+            RecordingMetricsListener.appenderName = appenderName;
+            RecordingMetricsListener.metrics = metrics;
+        }
+
+    }
+
+    @Test
+    public void shouldWriteToTheFallbackFileWhileTheDatabaseIsDown() throws Exception {
+        Assume.assumeTrue("hsql".equals(Dialects.defaultDatabase()));
+
+        // Given
+        File fallback = new File(tmp.getRoot(), "fallback.log");
+        Properties props = mergeProperties(jdbcProps, asyncProps);
+        props.put("url", "jdbc:hsqldb:hsql://localhost:1/unreachable");
+        props.put("fallbackFile", fallback.getPath());
+        props.put("fallbackPattern", "%p %m%n");
+        Log4jSupport.setupAppender(AsyncJdbcAppender.class, props);
+
+        // When
+        for (int i = 0; i < 10; i++)
+            Logger.getRootLogger().info("message " + i);
+
+        // Then
+        List<String> lines = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            lines = fallback.exists() ? Files.readAllLines(fallback.toPath(), StandardCharsets.UTF_8) : null;
+            if (lines != null && lines.size() == 10)
+                break;
+            Thread.sleep(50);
+        }
+        assertEquals(10, lines.size());
+        assertEquals("INFO message 0", lines.get(0));
+    }
+
     private Properties mergeProperties(Properties... props) {
         Properties all = new Properties();
         for (Properties p : props)
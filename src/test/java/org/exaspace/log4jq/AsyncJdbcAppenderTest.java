@@ -0,0 +1,197 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * The overflow policies, with a queue of 4 and a writer stalled on the first event until released.
+ */
+public class AsyncJdbcAppenderTest {
+
+    private final StalledAppender writer = new StalledAppender();
+    private final AsyncJdbcAppender appender = new AsyncJdbcAppender(writer);
+
+    @After
+    public void tearDown() {
+        writer.release();
+        appender.close();
+    }
+
+    @Test
+    public void shouldDropTheOldestQueuedEvents() throws Exception {
+        start("dropOldest");
+        append(Level.INFO, "1", "2", "3", "4", "5", "6");
+
+        assertEquals(2, appender.discardedCount());
+        assertEquals(4, appender.queueDepth());
+        assertWritten("0", "3", "4", "5", "6");
+    }
+
+    @Test
+    public void shouldDropTheNewEventOnceTheBlockTimesOut() throws Exception {
+        appender.setOverflowBlockMillis(50);
+        start("block");
+        append(Level.INFO, "1", "2", "3", "4");
+
+        long start = System.nanoTime();
+        append(Level.INFO, "5");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, appender.discardedCount());
+        assertEquals(4, appender.queueDepth());
+
+        appender.setOverflowBlockMillis(5000);
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                writer.release();
+            }
+        }.start();
+        append(Level.INFO, "6"); // waits for the writer to make room
+        assertEquals(1, appender.discardedCount());
+        assertWritten("0", "1", "2", "3", "4", "6");
+    }
+
+    @Test
+    public void shouldSampleInfoEventsOnceTheQueueIsHalfFull() throws Exception {
+        appender.setSampleFillPercent(50);
+        appender.setSamplePercent(0);
+        start("sample");
+        append(Level.INFO, "1", "2", "3", "4");
+        append(Level.WARN, "5");
+        append(Level.ERROR, "6", "7");
+
+        assertEquals(2, appender.sampledCount());
+        assertEquals(1, appender.discardedCount()); // the queue is full
+        assertEquals(4, appender.queueDepth());
+        assertWritten("0", "1", "2", "5", "6");
+    }
+
+    @Test
+    public void shouldDropQueuedEventsOfALowerLevel() throws Exception {
+        start("dropLowerLevel");
+        append(Level.INFO, "1");
+        append(Level.DEBUG, "2");
+        append(Level.INFO, "3", "4");
+        append(Level.WARN, "5"); // evicts 1
+        append(Level.INFO, "6"); // evicts 2
+        append(Level.DEBUG, "7"); // nothing lower to evict
+
+        assertEquals(3, appender.discardedCount());
+        assertEquals(4, appender.queueDepth());
+        assertWritten("0", "3", "4", "5", "6");
+    }
+
+    @Test
+    public void shouldNameTheInnerAppenderAfterThisOne() throws Exception {
+        appender.setName("JDBC_ASYNC");
+        start("dropNewest");
+
+        assertEquals("JDBC_ASYNC-0", writer.getName());
+    }
+
+    /*
+     * Activate the appender and wait until the writer has taken the first event and stalled.
+     */
+    private void start(String overflowPolicy) throws InterruptedException {
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setMaxElements(4);
+        appender.setSql("INSERT INTO applog (Message) VALUES (?)");
+        appender.setSqlParams("%m");
+        appender.activateOptions();
+        append(Level.INFO, "0");
+        assertTrue(writer.stalled.await(5, TimeUnit.SECONDS));
+        assertEquals(0, appender.queueDepth());
+    }
+
+    private void append(Level level, String... messages) {
+        for (String message : messages)
+            appender.append(new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), level, message, null));
+    }
+
+    /*
+     * Release the writer, wait for the queue to drain and check every event was written or counted as dropped.
+     */
+    private void assertWritten(String... messages) throws InterruptedException {
+        writer.release();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.written().size() < messages.length && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(Arrays.asList(messages), writer.written());
+        assertEquals(0, appender.queueDepth());
+        assertEquals(appender.submittedCount(),
+                writer.written().size() + appender.discardedCount() + appender.sampledCount());
+    }
+
+    /*
+     * Blocks the first write until released, then records the messages it is given.
+     */
+    private static class StalledAppender extends DiscardingJdbcAppender {
+
+        final CountDownLatch stalled = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+        void release() {
+            gate.countDown();
+        }
+
+        List<String> written() {
+            synchronized (written) {
+                return new ArrayList<>(written);
+            }
+        }
+
+        @Override
+        public int appendEvents(List<LoggingEvent> events) {
+            stalled.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            for (LoggingEvent event : events)
+                written.add(event.getRenderedMessage());
+            return events.size();
+        }
+
+        @Override
+        protected Connection openConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "isValid":
+                                    return true;
+                                case "isClosed":
+                                    return false;
+                                default:
+                                    return null;
+                            }
+                        }
+                    });
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.exaspace.log4jq;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchSizerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void shouldGrowAdditivelyWhileBatchesAreFull() {
+        BatchSizer sizer = new BatchSizer(1, 161, 100, 200);
+        assertEquals(1, sizer.size());
+        assertEquals(0, sizer.waitMillis());
+
+        for (int i = 1; i <= 10; i++) {
+            sizer.update(sizer.size(), FAST, 0);
+            assertEquals(1 + i * 10, sizer.size());
+        }
+        assertEquals(62, sizer.waitMillis());
+
+        for (int i = 0; i < 100; i++)
+            sizer.update(sizer.size(), FAST, 0);
+        assertEquals(161, sizer.size());
+        assertEquals(100, sizer.waitMillis());
+    }
+
+    @Test
+    public void shouldGrowWhileThereIsABacklog() {
+        BatchSizer sizer = new BatchSizer(10, 170, 0, 200);
+        sizer.update(10, FAST, 0);
+        sizer.update(15, FAST, 1000);
+        assertEquals(30, sizer.size());
+    }
+
+    @Test
+    public void shouldHalveWhenCommitsAreSlowOrBatchesSparse() {
+        BatchSizer sizer = new BatchSizer(10, 1000, 0, 200);
+        for (int i = 0; i < 20; i++)
+            sizer.update(sizer.size(), FAST, 0);
+        assertEquals(1000, sizer.size());
+
+        sizer.update(1000, SLOW, 5000);
+        assertEquals(500, sizer.size());
+
+        sizer.update(100, FAST, 0);
+        assertEquals(250, sizer.size());
+
+        sizer.update(200, FAST, 0); // at least half full: unchanged
+        assertEquals(250, sizer.size());
+
+        for (int i = 0; i < 10; i++)
+            sizer.update(1, FAST, 0);
+        assertEquals(10, sizer.size());
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBoundedEventQueueTest {
+
+    @Test
+    public void shouldRejectEventsOnceTheByteBudgetIsUsed() {
+        LoggingEvent small = event("short message", null);
+        long smallSize = ByteBoundedEventQueue.estimate(small);
+        ByteBoundedEventQueue queue = new ByteBoundedEventQueue(new DequeEventQueue(100), 3 * smallSize);
+
+        assertTrue(queue.offer(small));
+        assertTrue(queue.offer(event("short message", null)));
+        assertTrue(queue.offer(event("short message", null)));
+        assertFalse(queue.offer(event("short message", null)));
+        assertEquals(3 * smallSize, queue.bytes());
+
+        queue.poll();
+        assertEquals(2 * smallSize, queue.bytes());
+        assertTrue(queue.offer(event("short message", null)));
+    }
+
+    @Test
+    public void shouldChargeMoreForEventsWithStackTraces() {
+        LoggingEvent plain = event("message", null);
+        LoggingEvent withTrace = event("message", new Exception("failed", new RuntimeException("cause")));
+        assertTrue(ByteBoundedEventQueue.estimate(withTrace) > 10 * ByteBoundedEventQueue.estimate(plain));
+    }
+
+    @Test
+    public void shouldAlwaysAcceptAnEventIntoAnEmptyQueue() {
+        ByteBoundedEventQueue queue = new ByteBoundedEventQueue(new DequeEventQueue(100), 1);
+
+        assertTrue(queue.offer(event("message", new Exception())));
+        assertFalse(queue.offer(event("message", null)));
+        queue.poll();
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    public void shouldReleaseTheSizeCountedWhenTheEventWasQueued() {
+        ByteBoundedEventQueue queue = new ByteBoundedEventQueue(new DequeEventQueue(100), 100000);
+        LoggingEvent event = event("message", null);
+
+        assertTrue(queue.offer(event));
+        event.setProperty("added", "while queued"); // the event now estimates larger
+        queue.poll();
+        assertEquals(0, queue.bytes());
+    }
+
+    private static LoggingEvent event(String message, Throwable t) {
+        Logger root = Logger.getRootLogger();
+        return new LoggingEvent(Logger.class.getName(), root, Level.ERROR, message, t);
+    }
+
+}
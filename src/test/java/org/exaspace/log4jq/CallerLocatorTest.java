@@ -0,0 +1,81 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.spi.LocationInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CallerLocatorTest {
+
+    /*
+     * Stands in for a logger class (the event's fqnOfCategoryClass).
+     */
+    static class FakeLogger {
+
+        private final CallerLocator locator;
+
+        FakeLogger(CallerLocator locator) {
+            this.locator = locator;
+        }
+
+        LocationInfo info() {
+            return forcedLog();
+        }
+
+        LocationInfo infoThroughWrapper() {
+            return Wrapper.log(this);
+        }
+
+        private LocationInfo forcedLog() {
+            return locator.locate(FakeLogger.class.getName());
+        }
+    }
+
+    /*
+     * Some other class which the logging call passes through before coming back to the logger.
+     */
+    static class Wrapper {
+
+        static LocationInfo log(FakeLogger logger) {
+            return logger.forcedLog();
+        }
+    }
+
+    private final CallerLocator locator = new CallerLocator();
+    private final FakeLogger logger = new FakeLogger(locator);
+
+    @Test
+    public void shouldFindTheCallerOfTheLogger() {
+        LocationInfo info = logger.info();
+        assertEquals(CallerLocatorTest.class.getName(), info.getClassName());
+        assertEquals("shouldFindTheCallerOfTheLogger", info.getMethodName());
+        assertEquals("CallerLocatorTest.java", info.getFileName());
+    }
+
+    @Test
+    public void shouldFindTheCallerOfTheOutermostLoggerFrame() {
+        LocationInfo info = logger.infoThroughWrapper();
+        assertEquals(CallerLocatorTest.class.getName(), info.getClassName());
+        assertEquals("shouldFindTheCallerOfTheOutermostLoggerFrame", info.getMethodName());
+    }
+
+    @Test
+    public void shouldReuseTheLocationOfTheSameCallSite() {
+        LocationInfo[] infos = new LocationInfo[2];
+        for (int i = 0; i < infos.length; i++)
+            infos[i] = logger.info();
+        LocationInfo other = logger.info();
+
+        assertSame(infos[0], infos[1]);
+        assertNotSame(infos[0], other);
+        assertEquals(Integer.parseInt(infos[0].getLineNumber()) + 1, Integer.parseInt(other.getLineNumber()));
+    }
+
+    @Test
+    public void shouldReturnNotAvailableIfTheLoggerIsNotOnTheStack() {
+        assertSame(LocationInfo.NA_LOCATION_INFO, locator.locate("no.such.Logger"));
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.exaspace.log4jq;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+    private final AtomicBoolean databaseUp = new AtomicBoolean(true);
+    private final AtomicBoolean connectionsValid = new AtomicBoolean(true);
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+    private volatile long connectMillis;
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null)
+            pool.close();
+    }
+
+    @Test
+    public void shouldKeepValidatedConnectionsReady() throws Exception {
+        pool = newPool(2, 60000, 10);
+        awaitIdle(2);
+        assertNotNull(pool.take());
+        awaitIdle(2);
+        assertEquals(3, connects.get());
+    }
+
+    @Test
+    public void shouldWaitForTheFirstConnectAfterStarting() throws Exception {
+        connectMillis = 200;
+        pool = newPool(1, 60000, 10);
+        assertNotNull(pool.take());
+    }
+
+    @Test
+    public void shouldFailFastWhileTheDatabaseIsDownAndRecoverInTheBackground() throws Exception {
+        databaseUp.set(false);
+        pool = newPool(1, 60000, 10);
+        try {
+            pool.take();
+            fail("expected no connection to be ready");
+        } catch (SQLException expected) {
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.isFailing() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertTrue(pool.isFailing());
+        databaseUp.set(true);
+        assertNotNull(pool.take(5000));
+        assertFalse(pool.isFailing());
+    }
+
+    @Test
+    public void shouldReplaceIdleConnectionsWhichFailValidation() throws Exception {
+        pool = newPool(1, 20, 10);
+        awaitIdle(1);
+        connectionsValid.set(false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (closes.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertTrue(closes.get() > 0);
+    }
+
+    private ConnectionPool newPool(int size, long validationMillis, long retryMillis) {
+        ConnectionPool p = new ConnectionPool("test", new ConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection connect() throws SQLException {
+                if (!databaseUp.get())
+                    throw new SQLException("database down");
+                if (connectMillis > 0) {
+                    try {
+                        Thread.sleep(connectMillis);
+                    } catch (InterruptedException e) {
+                        throw new SQLException("interrupted");
+                    }
+                }
+                connects.incrementAndGet();
+                return connection();
+            }
+        }, size, validationMillis, retryMillis, 4 * retryMillis);
+        p.start();
+        return p;
+    }
+
+    private void awaitIdle(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.idleCount() < n && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(n, pool.idleCount());
+    }
+
+    private Connection connection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "isValid":
+                                return connectionsValid.get();
+                            case "close":
+                                closes.incrementAndGet();
+                                return null;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DequeEventQueueTest {
+
+    @Test
+    public void shouldEvictTheOldestEventOfALowerLevel() {
+        EventQueue queue = new DequeEventQueue(4);
+        queue.offer(event(Level.ERROR, "error 1"));
+        queue.offer(event(Level.DEBUG, "debug 1"));
+        queue.offer(event(Level.INFO, "info 1"));
+        queue.offer(event(Level.DEBUG, "debug 2"));
+        assertFalse(queue.offer(event(Level.WARN, "warn 1")));
+
+        assertEquals("debug 1", queue.evict(Level.WARN).getMessage());
+        assertTrue(queue.offer(event(Level.WARN, "warn 1")));
+
+        assertEquals("error 1", queue.poll().getMessage());
+        assertEquals("info 1", queue.poll().getMessage());
+        assertEquals("debug 2", queue.poll().getMessage());
+        assertEquals("warn 1", queue.poll().getMessage());
+    }
+
+    @Test
+    public void shouldNotEvictEventsOfTheSameOrHigherLevel() {
+        EventQueue queue = new DequeEventQueue(2);
+        queue.offer(event(Level.ERROR, "error 1"));
+        queue.offer(event(Level.WARN, "warn 1"));
+
+        assertNull(queue.evict(Level.WARN));
+        assertEquals(2, queue.size());
+    }
+
+    private static LoggingEvent event(Level level, String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), level, message, null);
+    }
+
+}
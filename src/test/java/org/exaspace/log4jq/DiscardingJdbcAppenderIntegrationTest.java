@@ -1,20 +1,29 @@
 package org.exaspace.log4jq;
 
+import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.NDC;
+import org.apache.log4j.config.PropertySetter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 import org.exaspace.log4jq.support.Dialects;
 import org.exaspace.log4jq.support.JdbcHelper;
 import org.exaspace.log4jq.support.Log4jSupport;
 import org.exaspace.log4jq.support.LogMessage;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DiscardingJdbcAppenderIntegrationTest {
 
@@ -73,6 +82,35 @@ public class DiscardingJdbcAppenderIntegrationTest {
         }
     }
 
+    @Test
+    public void shouldCopyAllMessageFieldsWhereTheDatabaseSupportsCopy() throws Exception {
+        Assume.assumeNotNull(sql.copy());
+
+        // Given
+        Properties copyProps = new Properties();
+        copyProps.putAll(jdbcProps);
+        copyProps.put("copySql", sql.copy());
+        copyProps.put("sqlParams", sql.copySqlParams());
+        copyProps.put("sqlParamTypes", "timestamp");
+        Log4jSupport.setupAppender(DiscardingJdbcAppender.class, copyProps);
+
+        // When
+        NDC.push("some NDC data");
+        Logger.getRootLogger().error("some log message\twith a tab", new Exception("some exception"));
+        NDC.pop();
+
+        // Then
+        List<LogMessage> msgs = db.selectAllLogMessages(sql.selectAll());
+        assertEquals(1, msgs.size());
+        LogMessage msg = msgs.get(0);
+        assertEquals("root", msg.logger);
+        assertEquals("ERROR", msg.priority);
+        assertEquals("some NDC data", msg.context);
+        assertEquals("some log message\twith a tab", msg.message);
+        String expectedTrace = "java.lang.Exception: some exception\n\tat ";
+        assertEquals(expectedTrace, msg.trace.substring(0, expectedTrace.length()));
+    }
+
     @Test
     public void shouldRecoverAfterDatabaseFailuresDiscardingMessagesDuringOutage() throws Exception {
         // Given
@@ -93,4 +131,52 @@ public class DiscardingJdbcAppenderIntegrationTest {
         assertEquals(2, msgs.size());
     }
 
+    @Test
+    public void shouldWriteEveryRowAndColumnOfABatchWithMultiRowInserts() throws Exception {
+        // Given
+        Properties props = new Properties();
+        props.putAll(jdbcProps);
+        props.put("multiRowInsertSize", "10");
+        DiscardingJdbcAppender appender = new DiscardingJdbcAppender();
+        PropertySetter.setProperties(appender, props, ""); // also activates the options
+        List<LoggingEvent> events = new ArrayList<>();
+        Level[] levels = {Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+        for (int i = 0; i < 37; i++) { // blocks of 10, 10, 10, 4, 2 and 1 rows
+            ThrowableInformation ti = i % 7 == 0 ? new ThrowableInformation(new IllegalStateException("failure " + i)) : null;
+            events.add(new LoggingEvent(Logger.class.getName(), Logger.getLogger("logger." + i), System.currentTimeMillis(),
+                    levels[i % levels.length], "message " + i, "thread-" + i, ti, "ndc " + i, null, null));
+        }
+
+        // When
+        int written;
+        try {
+            written = appender.appendEvents(events);
+        } finally {
+            appender.close();
+        }
+
+        // Then
+        assertEquals(37, written);
+        List<LogMessage> msgs = db.selectAllLogMessages(sql.selectAll());
+        assertEquals(37, msgs.size());
+        Collections.sort(msgs, new Comparator<LogMessage>() {
+            @Override
+            public int compare(LogMessage a, LogMessage b) {
+                return Long.compare(a.id, b.id);
+            }
+        });
+        for (int i = 0; i < 37; i++) {
+            LogMessage msg = msgs.get(i);
+            assertEquals("logger." + i, msg.logger);
+            assertEquals(levels[i % levels.length].toString(), msg.priority);
+            assertEquals("thread-" + i, msg.threadId);
+            assertEquals("ndc " + i, msg.context);
+            assertEquals("message " + i, msg.message);
+            if (i % 7 == 0)
+                assertTrue(msg.trace.startsWith("java.lang.IllegalStateException: failure " + i + "\n\tat "));
+            else
+                assertTrue(msg.trace == null || msg.trace.isEmpty());
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscardingJdbcAppenderTest {
+
+    @Test
+    public void shouldSkipARowWithBadData() {
+        InsertingAppender appender = new InsertingAppender("22001"); // value too long
+
+        assertTrue(appender.appendEvent(message("message 1")));
+        assertFalse(appender.appendEvent(message("bad")));
+        assertTrue(appender.appendEvent(message("message 2")));
+
+        assertEquals(1, appender.getRejectedCount());
+        assertEquals(2, appender.inserted.size());
+        assertEquals(1, appender.connects);
+    }
+
+    @Test
+    public void shouldRetryRatherThanSkipWhenTheTableIsMissing() {
+        InsertingAppender appender = new InsertingAppender("42501"); // as HSQLDB reports a missing table
+        List<LoggingEvent> events = new ArrayList<>();
+        events.add(message("bad"));
+        events.add(message("message 1"));
+
+        assertEquals(0, appender.appendEvents(events));
+        assertEquals(0, appender.getRejectedCount());
+        assertFalse(appender.connected);
+        assertTrue(appender.inserted.isEmpty());
+    }
+
+    private static LoggingEvent message(String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.INFO, message, null);
+    }
+
+    /*
+     * Inserts into a list through stub JDBC objects which fail any statement with a "bad" row
+     * with the given SQLState.
+     */
+    private static class InsertingAppender extends DiscardingJdbcAppender {
+
+        final List<String> inserted = new ArrayList<>();
+        final String failState;
+        volatile boolean connected;
+        int connects;
+
+        InsertingAppender(String failState) {
+            this.failState = failState;
+            setSql("INSERT INTO applog (Message) VALUES (?)");
+            setSqlParams("%m");
+            activateOptions();
+        }
+
+        @Override
+        protected Connection openConnection() {
+            connected = true;
+            connects++;
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "isValid":
+                                    return true;
+                                case "isClosed":
+                                    return false;
+                                case "prepareStatement":
+                                    return statement();
+                                case "close":
+                                    connected = false;
+                                    return null;
+                                default:
+                                    return null;
+                            }
+                        }
+                    });
+        }
+
+        private PreparedStatement statement() {
+            final List<String> rows = new ArrayList<>();
+            final String[] row = new String[1];
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                            switch (method.getName()) {
+                                case "setString":
+                                    row[0] = (String) args[1];
+                                    return null;
+                                case "addBatch":
+                                    rows.add(row[0]);
+                                    return null;
+                                case "executeUpdate":
+                                    insert(row[0]);
+                                    return 1;
+                                case "executeBatch":
+                                    for (String r : rows)
+                                        insert(r);
+                                    int[] counts = new int[rows.size()];
+                                    Arrays.fill(counts, 1);
+                                    rows.clear();
+                                    return counts;
+                                default:
+                                    return null;
+                            }
+                        }
+                    });
+        }
+
+        private void insert(String message) throws SQLException {
+            if ("bad".equals(message))
+                throw new SQLException("insert failed", failState);
+            inserted.add(message);
+        }
+    }
+
+}
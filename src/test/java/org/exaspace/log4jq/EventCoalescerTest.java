@@ -0,0 +1,63 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EventCoalescerTest {
+
+    private final EventCoalescer coalescer = new EventCoalescer(1000);
+
+    @Test
+    public void shouldCountRepeatsUntilTheEventIsSealed() {
+        CoalescedLoggingEvent first = coalescer.coalesce(event(Level.WARN, "retrying", 1000));
+        assertNotNull(first);
+        assertNull(coalescer.coalesce(event(Level.WARN, "retrying", 1100)));
+        assertNull(coalescer.coalesce(event(Level.WARN, "retrying", 1200)));
+
+        first.seal();
+        assertEquals("3", first.getMDC(CoalescedLoggingEvent.REPEAT_COUNT));
+        assertEquals("1200", first.getMDC(CoalescedLoggingEvent.LAST_TIME_MILLIS));
+
+        CoalescedLoggingEvent next = coalescer.coalesce(event(Level.WARN, "retrying", 1300));
+        assertNotNull(next);
+        next.seal();
+        assertEquals("1", next.getMDC(CoalescedLoggingEvent.REPEAT_COUNT));
+    }
+
+    @Test
+    public void shouldNotCoalesceDifferentEventsOrEventsOutsideTheWindow() {
+        assertNotNull(coalescer.coalesce(event(Level.WARN, "retrying", 1000)));
+        assertNotNull(coalescer.coalesce(event(Level.ERROR, "retrying", 1000)));
+        assertNotNull(coalescer.coalesce(event(Level.WARN, "giving up", 1000)));
+        assertNull(coalescer.coalesce(event(Level.WARN, "retrying", 1999)));
+        assertNotNull(coalescer.coalesce(event(Level.WARN, "retrying", 2000)));
+        assertEquals(3, coalescer.openEvents());
+    }
+
+    @Test
+    public void shouldCloseEventsOnceSealed() {
+        CoalescedLoggingEvent first = coalescer.coalesce(event(Level.WARN, "retrying", 1000));
+        assertNotNull(coalescer.coalesce(event(Level.WARN, "giving up", 1000)));
+        first.seal();
+        assertEquals(1, coalescer.openEvents());
+    }
+
+    @Test
+    public void shouldStartANewEventAfterForgettingOne() {
+        CoalescedLoggingEvent first = coalescer.coalesce(event(Level.WARN, "retrying", 1000));
+        coalescer.forget(first);
+        assertEquals(0, coalescer.openEvents());
+        assertNotNull(coalescer.coalesce(event(Level.WARN, "retrying", 1001)));
+    }
+
+    private static LoggingEvent event(Level level, String message, long time) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), time, level, message, null);
+    }
+
+}
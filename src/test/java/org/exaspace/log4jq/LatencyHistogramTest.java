@@ -0,0 +1,51 @@
+package org.exaspace.log4jq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldMapEveryValueIntoTheBucketStartingAtItsLowerBound() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE};
+        for (long v : values) {
+            int i = LatencyHistogram.index(v);
+            assertTrue(v + " >= lower bound", v >= LatencyHistogram.lowerBound(i));
+            if (v < Long.MAX_VALUE)
+                assertTrue(v + " < next lower bound", v < LatencyHistogram.lowerBound(i + 1) || i == LatencyHistogram.index(Long.MAX_VALUE));
+        }
+        for (int i = 1; i < LatencyHistogram.index(Long.MAX_VALUE); i++)
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.lowerBound(i)));
+    }
+
+    @Test
+    public void shouldReportPercentilesWithinTheBucketResolution() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            h.record(i);
+        assertEquals(1000, h.count());
+        assertEquals(1000, h.max());
+        assertEquals(500.5, h.mean(), 0.001);
+        assertWithin(500, h.percentile(50));
+        assertWithin(990, h.percentile(99));
+        assertEquals(1000, h.percentile(100));
+    }
+
+    @Test
+    public void shouldBeEmptyAfterReset() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(42);
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(99));
+        assertEquals(0, h.max());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+
+}
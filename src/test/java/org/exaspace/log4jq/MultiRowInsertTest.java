@@ -0,0 +1,39 @@
+package org.exaspace.log4jq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiRowInsertTest {
+
+    private static final String SQL = "INSERT INTO applog (LogDate, Priority, Message) values (getDate(), ?, LEFT(ISNULL(?,'(none)'),6000))";
+
+    @Test
+    public void shouldRepeatTheValuesList() {
+        MultiRowInsert insert = MultiRowInsert.parse(SQL, 10);
+        assertEquals(SQL, insert.sql(1));
+        assertEquals("INSERT INTO applog (LogDate, Priority, Message) values "
+                + "(getDate(), ?, LEFT(ISNULL(?,'(none)'),6000)), (getDate(), ?, LEFT(ISNULL(?,'(none)'),6000))", insert.sql(2));
+    }
+
+    @Test
+    public void shouldKeepTextAfterTheValuesList() {
+        MultiRowInsert insert = MultiRowInsert.parse("INSERT INTO t (a) VALUES(?) ON CONFLICT DO NOTHING", 10);
+        assertEquals("INSERT INTO t (a) VALUES(?), (?) ON CONFLICT DO NOTHING", insert.sql(2));
+    }
+
+    @Test
+    public void shouldSplitRemaindersInPowersOfTwo() {
+        MultiRowInsert insert = MultiRowInsert.parse(SQL, 100);
+        assertEquals(100, insert.blockSize(250));
+        assertEquals(32, insert.blockSize(50));
+        assertEquals(16, insert.blockSize(18));
+        assertEquals(1, insert.blockSize(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectStatementsWithoutValues() {
+        MultiRowInsert.parse("{call log_event(?, ?)}", 10);
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParamBinderTest {
+
+    private final LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), 1700000000123L, Level.ERROR, "42", null);
+
+    private final List<String> calls = new ArrayList<>();
+    private final List<Object[]> args = new ArrayList<>();
+
+    private final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    calls.add(method.getName() + Arrays.asList(args));
+                    ParamBinderTest.this.args.add(args);
+                    return null;
+                }
+            });
+
+    @Test
+    public void shouldBindStringsByDefault() throws Exception {
+        bind(null, "%m");
+        bind("", "%m");
+        bind("String", "%m");
+        assertEquals(Arrays.asList("setString[1, 42]", "setString[1, 42]", "setString[1, 42]"), calls);
+    }
+
+    @Test
+    public void shouldBindEventTimeAsTimestampOrMillis() throws Exception {
+        assertNull(ParamBinder.create("timestamp", "%d").render(event));
+        bind("timestamp", "%d");
+        bind("long", "%d{ISO8601}");
+        assertEquals(Arrays.asList("setTimestamp[1, " + new Timestamp(1700000000123L) + "]", "setLong[1, 1700000000123]"), calls);
+    }
+
+    @Test
+    public void shouldBindLevelAsNumber() throws Exception {
+        assertNull(ParamBinder.create("int", "%p").render(event));
+        bind("int", "%p");
+        bind("long", "%p");
+        assertEquals(Arrays.asList("setInt[1, " + Level.ERROR_INT + "]", "setLong[1, " + Level.ERROR_INT + "]"), calls);
+    }
+
+    @Test
+    public void shouldParseOtherNumbersOrBindNull() throws Exception {
+        bind("int", "%m");
+        ParamBinder.create("long", "%m").bind(statement, 2, event, "?");
+        assertEquals(Arrays.asList("setInt[1, 42]", "setNull[2, " + Types.BIGINT + "]"), calls);
+    }
+
+    @Test
+    public void shouldBindClobsAsCharacterStreams() throws Exception {
+        ParamBinder.create("clob", "%m").bind(statement, 1, event, null);
+        assertEquals(Arrays.asList("setNull[1, " + Types.CLOB + "]"), calls);
+        bind("clob", "%m");
+        assertEquals("setCharacterStream", calls.get(1).substring(0, calls.get(1).indexOf('[')));
+    }
+
+    @Test
+    public void shouldTruncateClobs() throws Exception {
+        ParamBinder.create("clob", "%m", 1).bind(statement, 1, event);
+        assertEquals("4", streamed(0));
+        ParamBinder.create("clob", "%m", 1).bind(statement, 1, event, "42");
+        assertEquals("4", streamed(1));
+    }
+
+    @Test
+    public void shouldStreamStackTracesUpToTheLimit() throws Exception {
+        Exception e = new IllegalStateException("some failure", new RuntimeException("cause"));
+        LoggingEvent error = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.ERROR, "failed", e);
+        ParamBinder.create("clob", "%throwable", 0).bind(statement, 1, error);
+        String trace = streamed(0);
+        assertTrue(trace.startsWith("java.lang.IllegalStateException: some failure\n\tat "));
+        assertTrue(trace.contains("Caused by: java.lang.RuntimeException: cause\n"));
+        assertFalse(trace.contains("\r"));
+
+        ParamBinder.create("clob", "%throwable", 20).bind(statement, 1, error);
+        assertEquals(trace.substring(0, 20), streamed(1));
+
+        ParamBinder.create("clob", "%throwable", 20).bind(statement, 1, event);
+        assertEquals("", streamed(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownTypes() {
+        ParamBinder.create("blob", "%m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIntDates() {
+        ParamBinder.create("int", "%d");
+    }
+
+    private String streamed(int call) throws Exception {
+        Reader reader = (Reader) args.get(call)[1];
+        char[] chars = new char[(Integer) args.get(call)[2]];
+        int n = 0;
+        while (n < chars.length) {
+            int read = reader.read(chars, n, chars.length - n);
+            if (read < 0)
+                break;
+            n += read;
+        }
+        return new String(chars, 0, n);
+    }
+
+    private void bind(String type, String pattern) throws Exception {
+        ParamBinder binder = ParamBinder.create(type, pattern);
+        binder.bind(statement, 1, event, binder.render(event));
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ParamRendererTest {
+
+    private final LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getLogger("some.logger"), Level.WARN, "some message", null);
+
+    @Test
+    public void shouldReadSimpleFieldsDirectlyFromTheEvent() {
+        assertSame(ParamRenderer.LEVEL, ParamRenderer.compile("%p"));
+        assertEquals("WARN", ParamRenderer.compile("%p").render(event));
+        assertEquals("some.logger", ParamRenderer.compile("%c").render(event));
+        assertEquals("some message", ParamRenderer.compile("%m").render(event));
+        assertEquals(Thread.currentThread().getName(), ParamRenderer.compile("%t").render(event));
+    }
+
+    @Test
+    public void shouldRenderLiteralParams() {
+        assertEquals("constant", ParamRenderer.compile("constant").render(event));
+    }
+
+    @Test
+    public void shouldRenderIso8601Dates() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+        ParamRenderer renderer = ParamRenderer.compile("%d{ISO8601}");
+        assertSame(ParamRenderer.ISO8601_DATE, ParamRenderer.compile("%d"));
+        long[] times = {event.getTimeStamp(), 0L, 7L, 999L, 1000L, 1001L, -1L, -999L, -1000L, 1700000000123L, 1700000000123L, 1700000001005L};
+        for (long t : times) {
+            LoggingEvent e = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), t, Level.INFO, "m", null);
+            assertEquals(format.format(new Date(t)), renderer.render(e));
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PgCopyTest {
+
+    private final LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), 1700000000123L, Level.ERROR, "a\tb\\c\r\nd", null);
+
+    @Test
+    public void shouldEscapeValuesInTheTextFormat() {
+        StringBuilder row = new StringBuilder();
+        PgCopy.appendValue(row, "a\tb\\c\r\nd");
+        row.append('\t');
+        PgCopy.appendValue(row, null);
+        row.append('\t');
+        PgCopy.appendValue(row, "");
+        assertEquals("a\\tb\\\\c\\r\\nd\t\\N\t", row.toString());
+    }
+
+    @Test
+    public void shouldRenderTypedParamsAsText() {
+        assertEquals(new Timestamp(1700000000123L).toString(), text("timestamp", "%d"));
+        assertEquals("1700000000123", text("long", "%d"));
+        assertEquals(String.valueOf(Level.ERROR_INT), text("int", "%p"));
+        assertNull(text("int", "%m"));
+        assertEquals("a\tb\\c\r\nd", text("string", "%m"));
+        assertEquals("a\tb", text("clob", "%m", 3));
+    }
+
+    @Test
+    public void shouldCopyAroundARowTheDatabaseRejects() {
+        CopyingAppender appender = new CopyingAppender();
+        List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            events.add(message(i == 6 ? "bad" : "message " + i));
+
+        assertEquals(10, appender.appendEvents(events));
+        assertEquals(9, appender.copied.size());
+        assertFalse(appender.copied.contains("bad"));
+        assertEquals("message 9", appender.copied.get(8));
+        assertEquals(1, appender.getRejectedCount());
+        assertTrue(appender.connected);
+    }
+
+    @Test
+    public void shouldStopCopyingWhenTheConnectionFails() {
+        CopyingAppender appender = new CopyingAppender();
+        appender.failState = "08006"; // connection failure
+        List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            events.add(message(i == 2 ? "bad" : "message " + i));
+
+        assertEquals(0, appender.appendEvents(events));
+        assertEquals(0, appender.getRejectedCount());
+        assertFalse(appender.connected);
+    }
+
+    @Test
+    public void shouldRetryRatherThanSkipWhenTheTableIsMissing() {
+        CopyingAppender appender = new CopyingAppender();
+        appender.failState = "42P01"; // undefined table
+        List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            events.add(message(i == 2 ? "bad" : "message " + i));
+
+        assertEquals(0, appender.appendEvents(events));
+        assertEquals(0, appender.getRejectedCount());
+        assertTrue(appender.copied.isEmpty());
+    }
+
+    private LoggingEvent message(String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.INFO, message, null);
+    }
+
+    /*
+     * Copies to a list through a stub PgCopy which fails any COPY with a "bad" row
+     * (with the SQLState of a data error unless told otherwise).
+     */
+    private static class CopyingAppender extends DiscardingJdbcAppender {
+
+        final List<String> copied = new ArrayList<>();
+        volatile String failState = "22001"; // value too long
+        volatile boolean connected;
+
+        CopyingAppender() {
+            setSql("INSERT INTO applog (Message) VALUES (?)");
+            setSqlParams("%m");
+            setCopySql("COPY applog (Message) FROM STDIN");
+            activateOptions();
+        }
+
+        @Override
+        protected Connection openConnection() {
+            connected = true;
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "isValid":
+                                    return true;
+                                case "isClosed":
+                                    return false;
+                                case "close":
+                                    connected = false;
+                                    return null;
+                                default:
+                                    return null;
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        PgCopy openCopy(Connection connection) {
+            return new PgCopy(null, null) {
+                @Override
+                long copyIn(String sql, Reader rows) throws SQLException {
+                    List<String> lines = new ArrayList<>();
+                    try (BufferedReader in = new BufferedReader(rows)) {
+                        String line;
+                        while ((line = in.readLine()) != null)
+                            lines.add(line);
+                    } catch (IOException e) {
+                        throw new SQLException(e);
+                    }
+                    if (lines.contains("bad"))
+                        throw new SQLException("COPY failed", failState);
+                    copied.addAll(lines);
+                    return lines.size();
+                }
+            };
+        }
+    }
+
+    private String text(String type, String pattern) {
+        return text(type, pattern, 0);
+    }
+
+    private String text(String type, String pattern, int maxClobChars) {
+        ParamBinder binder = ParamBinder.create(type, pattern, maxClobChars);
+        return binder.text(event, binder.render(event));
+    }
+
+}
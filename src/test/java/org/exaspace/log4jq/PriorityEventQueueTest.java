@@ -0,0 +1,84 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityEventQueueTest {
+
+    @Test
+    public void shouldAcceptErrorsWhenTheInfoQueueIsFull() {
+        EventQueue queue = new PriorityEventQueue(new int[]{2, 2, 2}, new int[]{1, 1, 1});
+        assertTrue(queue.offer(event(Level.INFO, "info 1")));
+        assertTrue(queue.offer(event(Level.DEBUG, "debug 1")));
+        assertFalse(queue.offer(event(Level.INFO, "info 2")));
+
+        assertTrue(queue.offer(event(Level.ERROR, "error 1")));
+        assertTrue(queue.offer(event(Level.FATAL, "fatal 1")));
+        assertFalse(queue.offer(event(Level.ERROR, "error 2")));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void shouldDrainGroupsByWeight() {
+        EventQueue queue = new PriorityEventQueue(new int[]{10, 10, 10}, new int[]{2, 1, 1});
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(event(Level.INFO, "info " + i));
+            queue.offer(event(Level.WARN, "warn " + i));
+            queue.offer(event(Level.ERROR, "error " + i));
+        }
+
+        List<LoggingEvent> events = new ArrayList<>();
+        assertEquals(9, queue.drainTo(events, 100));
+        String[] expected = {"error 1", "error 2", "warn 1", "info 1", "error 3", "warn 2", "info 2", "warn 3", "info 3"};
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], events.get(i).getMessage());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shouldEvictFromTheGroupOfTheNewEvent() throws InterruptedException {
+        EventQueue queue = new PriorityEventQueue(new int[]{2, 2, 2}, new int[]{1, 1, 1});
+        queue.offer(event(Level.DEBUG, "debug 1"));
+        queue.offer(event(Level.INFO, "info 1"));
+        queue.offer(event(Level.ERROR, "error 1"));
+
+        assertNull(queue.evict(Level.ERROR));
+        assertEquals("debug 1", queue.evict(Level.INFO).getMessage());
+        assertEquals(2, queue.size());
+
+        assertEquals("error 1", queue.take().getMessage());
+        assertEquals("info 1", queue.poll(10, TimeUnit.MILLISECONDS).getMessage());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldEvictTheOldestEventOfTheGroupOfTheNewEvent() {
+        EventQueue queue = new PriorityEventQueue(new int[]{2, 2, 2}, new int[]{1, 1, 1});
+        queue.offer(event(Level.ERROR, "error 1"));
+        queue.offer(event(Level.INFO, "info 1"));
+        queue.offer(event(Level.DEBUG, "debug 1"));
+        LoggingEvent info = event(Level.INFO, "info 2");
+        assertFalse(queue.offer(info));
+
+        assertEquals("info 1", queue.evictOldest(info).getMessage());
+        assertTrue(queue.offer(info));
+        assertNull(queue.evictOldest(event(Level.WARN, "warn 1")));
+        assertEquals(3, queue.size());
+    }
+
+    private static LoggingEvent event(Level level, String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), level, message, null);
+    }
+
+}
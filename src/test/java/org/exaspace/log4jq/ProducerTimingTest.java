@@ -0,0 +1,60 @@
+package org.exaspace.log4jq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProducerTimingTest {
+
+    @Test
+    public void shouldRecordEachPhaseInTheCallingThreadsCell() {
+        ProducerTiming timing = new ProducerTiming();
+        ProducerTiming.Cell cell = timing.current();
+        cell.enter();
+        long t = cell.start();
+        t = cell.lap(ProducerTiming.RENDER, t);
+        cell.lap(ProducerTiming.ENQUEUE, t);
+
+        assertEquals(1, timing.appends());
+        assertTrue(timing.monitorNanos() >= 0);
+        assertEquals(0, timing.locationNanos());
+        assertEquals(1, timing.topThreads(10).length);
+        assertTrue(timing.topThreads(10)[0].startsWith(Thread.currentThread().getName() + ": appends=1"));
+    }
+
+    @Test
+    public void shouldNotCountTheMonitorWaitOfAnAppendWhichWasFilteredOut() throws InterruptedException {
+        ProducerTiming timing = new ProducerTiming();
+        ProducerTiming.Cell cell = timing.current();
+        cell.enter();
+        cell.leave();
+        Thread.sleep(20);
+        cell.start();
+
+        assertEquals(1, timing.appends());
+        assertEquals(0, timing.monitorNanos());
+    }
+
+    @Test
+    public void shouldKeepTheCountsOfThreadsWhichHaveDied() throws InterruptedException {
+        final ProducerTiming timing = new ProducerTiming();
+        Thread producer = new Thread("producer") {
+            public void run() {
+                ProducerTiming.Cell cell = timing.current();
+                for (int i = 0; i < 3; i++)
+                    cell.lap(ProducerTiming.ENQUEUE, cell.start());
+            }
+        };
+        producer.start();
+        producer.join();
+        timing.current().start();
+
+        assertEquals(4, timing.appends());
+        timing.retireDeadThreads();
+        assertEquals(4, timing.appends());
+        assertEquals(3, timing.total(ProducerTiming.APPENDS) - timing.current().get(ProducerTiming.APPENDS));
+        assertEquals(1, timing.topThreads(10).length);
+    }
+
+}
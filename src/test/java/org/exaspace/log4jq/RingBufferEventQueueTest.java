@@ -0,0 +1,104 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferEventQueueTest {
+
+    @Test
+    public void shouldHoldNoMoreThanTheRequestedCapacity() {
+        EventQueue queue = new RingBufferEventQueue(3);
+
+        assertTrue(queue.offer(event("1")));
+        assertTrue(queue.offer(event("2")));
+        assertTrue(queue.offer(event("3")));
+        assertFalse(queue.offer(event("4")));
+        assertEquals(3, queue.size());
+
+        assertEquals("1", queue.poll().getMessage());
+        assertTrue(queue.offer(event("5")));
+        assertEquals("2", queue.poll().getMessage());
+        assertEquals("3", queue.poll().getMessage());
+        assertEquals("5", queue.poll().getMessage());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shouldDeliverEventsFromManyProducersInPerThreadOrder() throws Exception {
+        final EventQueue queue = new RingBufferEventQueue(64);
+        final int producers = 4;
+        final int eventsPerProducer = 10000;
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        LoggingEvent e = event(producer + ":" + i);
+                        while (!queue.offer(e))
+                            Thread.yield();
+                    }
+                }
+            }.start();
+        }
+
+        int[] next = new int[producers];
+        List<LoggingEvent> batch = new ArrayList<>();
+        for (int received = 0; received < producers * eventsPerProducer; ) {
+            LoggingEvent first = queue.poll(5, TimeUnit.SECONDS);
+            assertTrue("timed out waiting for events", first != null);
+            batch.add(first);
+            queue.drainTo(batch, 10);
+            for (LoggingEvent e : batch) {
+                String[] parts = ((String) e.getMessage()).split(":");
+                int producer = Integer.parseInt(parts[0]);
+                assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+                received++;
+            }
+            batch.clear();
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void shouldWakeEveryWaitingConsumer() throws Exception {
+        final EventQueue queue = new RingBufferEventQueue(16);
+        final CountDownLatch taken = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        if (queue.take() != null)
+                            taken.countDown();
+                    } catch (InterruptedException e) {
+                        // test failed
+                    }
+                }
+            }.start();
+        }
+        Thread.sleep(100); // let all consumers park
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(queue.offer(event("" + i)));
+
+        // well within the backstop park time
+        assertTrue(taken.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    private static LoggingEvent event(String message) {
+        Logger root = Logger.getRootLogger();
+        return new LoggingEvent(Logger.class.getName(), root, Level.INFO, message, null);
+    }
+
+}
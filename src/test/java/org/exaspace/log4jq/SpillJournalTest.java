@@ -0,0 +1,112 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpillJournalTest {
+
+    private static final int SEGMENT_BYTES = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnEventsInOrderAcrossSegments() throws Exception {
+        SpillJournal journal = new SpillJournal(tmp.getRoot(), SEGMENT_BYTES, 1024 * 1024);
+        for (int i = 0; i < 500; i++)
+            assertTrue(journal.append(event("message " + i)));
+        assertEquals(500, journal.size());
+        assertTrue(tmp.getRoot().list().length > 1);
+
+        List<LoggingEvent> read = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            read.add(journal.poll());
+            assertEquals("message " + i, read.get(i).getRenderedMessage());
+        }
+        assertNull(journal.poll());
+        assertEquals(0, journal.size());
+        assertTrue(tmp.getRoot().list().length > 1); // not deleted until acknowledged
+
+        journal.ack(read);
+        assertEquals(1, tmp.getRoot().list().length); // acknowledged segments are deleted
+    }
+
+    @Test
+    public void shouldRecoverUnreadEventsAfterReopening() throws Exception {
+        File dir = tmp.getRoot();
+        SpillJournal journal = new SpillJournal(dir, SEGMENT_BYTES, 1024 * 1024);
+        for (int i = 0; i < 100; i++)
+            journal.append(event("message " + i));
+        for (int i = 0; i < 40; i++)
+            journal.ack(Collections.singletonList(journal.poll()));
+        journal.close();
+
+        journal = new SpillJournal(dir, SEGMENT_BYTES, 1024 * 1024);
+        assertEquals(60, journal.size());
+        assertEquals("message 40", journal.poll().getRenderedMessage());
+    }
+
+    @Test
+    public void shouldReplayEventsReadButNotAcknowledged() throws Exception {
+        File dir = tmp.getRoot();
+        SpillJournal journal = new SpillJournal(dir, SEGMENT_BYTES, 1024 * 1024);
+        for (int i = 0; i < 500; i++)
+            journal.append(event("message " + i));
+        List<LoggingEvent> read = new ArrayList<>();
+        for (int i = 0; i < 400; i++)
+            read.add(journal.poll());
+        journal.ack(read.subList(100, 300)); // out of order, as with several writers
+        journal.ack(read.subList(0, 50));
+        journal.close(); // as if the process died with 50..99 and 300..399 in flight
+
+        journal = new SpillJournal(dir, SEGMENT_BYTES, 1024 * 1024);
+        assertEquals(450, journal.size());
+        assertEquals("message 50", journal.poll().getRenderedMessage());
+    }
+
+    @Test
+    public void shouldRejectEventsWhenTheJournalIsFull() throws Exception {
+        SpillJournal journal = new SpillJournal(tmp.getRoot(), SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+        int appended = 0;
+        while (journal.append(event("message " + appended)))
+            appended++;
+        assertTrue(appended > 0);
+        assertFalse(journal.append(event("one too many")));
+
+        journal.poll();
+        assertEquals(appended - 1, journal.size());
+    }
+
+    @Test
+    public void shouldKeepTheThrowableRenderingAndMdc() throws Exception {
+        SpillJournal journal = new SpillJournal(tmp.getRoot(), SEGMENT_BYTES, 1024 * 1024);
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(),
+                Level.ERROR, "failed", new IllegalStateException("broken"));
+        event.setProperty("user", "alice");
+        journal.append(event);
+
+        LoggingEvent copy = journal.poll();
+        assertEquals(Level.ERROR, copy.getLevel());
+        assertEquals("alice", copy.getMDC("user"));
+        assertEquals("java.lang.IllegalStateException: broken", copy.getThrowableStrRep()[0]);
+    }
+
+    private static LoggingEvent event(String message) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.INFO, message, null);
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StripedEventQueueTest {
+
+    @Test
+    public void shouldDivideTheCapacityBetweenStripes() {
+        StripedEventQueue queue = new StripedEventQueue(3, 10, false);
+        assertEquals(4, queue.stripes());
+
+        // all offered from this thread, so all in one stripe of capacity 3
+        assertTrue(queue.offer(event("1", 0)));
+        assertTrue(queue.offer(event("2", 0)));
+        assertTrue(queue.offer(event("3", 0)));
+        assertFalse(queue.offer(event("4", 0)));
+        assertEquals(3, queue.size());
+
+        assertEquals("1", queue.poll().getMessage());
+        assertEquals("2", queue.poll().getMessage());
+        assertEquals("3", queue.poll().getMessage());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shouldEvictTheOldestEventOfTheCallersOwnStripe() throws Exception {
+        final StripedEventQueue queue = new StripedEventQueue(2, 4, false);
+        Thread other = producer(queue, 100);
+        while (queue.stripe(other) == queue.stripe(Thread.currentThread()))
+            other = producer(queue, 100);
+        other.start();
+        other.join();
+        assertTrue(queue.offer(event("1", 1)));
+        assertTrue(queue.offer(event("2", 2)));
+        LoggingEvent third = event("3", 3);
+        assertFalse(queue.offer(third));
+
+        assertEquals("1", queue.evictOldest(third).getMessage());
+        assertTrue(queue.offer(third));
+        assertEquals(3, queue.size());
+        assertEquals("2", queue.evictOldest(third).getMessage());
+        assertEquals("3", queue.evictOldest(third).getMessage());
+        assertNull(queue.evictOldest(third)); // the other thread's event is left alone
+        assertEquals(100, queue.poll().getTimeStamp());
+    }
+
+    @Test
+    public void shouldDeliverEventsFromManyProducersInPerThreadOrder() throws Exception {
+        final EventQueue queue = new StripedEventQueue(2, 64, false);
+        final int producers = 4;
+        final int eventsPerProducer = 10000;
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        LoggingEvent e = event(producer + ":" + i, 0);
+                        while (!queue.offer(e))
+                            Thread.yield();
+                    }
+                }
+            }.start();
+        }
+
+        int[] next = new int[producers];
+        List<LoggingEvent> batch = new ArrayList<>();
+        for (int received = 0; received < producers * eventsPerProducer; ) {
+            LoggingEvent first = queue.poll(5, TimeUnit.SECONDS);
+            assertTrue("timed out waiting for events", first != null);
+            batch.add(first);
+            queue.drainTo(batch, 10);
+            for (LoggingEvent e : batch) {
+                String[] parts = ((String) e.getMessage()).split(":");
+                int producer = Integer.parseInt(parts[0]);
+                assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+                received++;
+            }
+            batch.clear();
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void shouldMergeStripesInTimestampOrder() throws Exception {
+        final StripedEventQueue queue = new StripedEventQueue(1024, 4096, true);
+        Thread a = producer(queue, 3, 5, 6);
+        Thread b = producer(queue, 1, 2, 4);
+        assertTrue(queue.stripe(a) != queue.stripe(b));
+        a.start();
+        b.start();
+        a.join();
+        b.join();
+
+        assertEquals(6, queue.size());
+        for (int ts = 1; ts <= 6; ts++) {
+            assertEquals(ts, queue.poll().getTimeStamp());
+            assertEquals(6 - ts, queue.size());
+        }
+        assertNull(queue.poll());
+    }
+
+    private static Thread producer(final EventQueue queue, final long... timestamps) {
+        return new Thread() {
+            public void run() {
+                for (long ts : timestamps)
+                    queue.offer(event(String.valueOf(ts), ts));
+            }
+        };
+    }
+
+    private static LoggingEvent event(String message, long timestamp) {
+        Logger root = Logger.getRootLogger();
+        return new LoggingEvent(Logger.class.getName(), root, timestamp, Level.INFO, message, null);
+    }
+
+}
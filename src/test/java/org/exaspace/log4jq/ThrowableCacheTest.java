@@ -0,0 +1,69 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThrowableCacheTest {
+
+    private final ThrowableCache cache = new ThrowableCache(10);
+
+    @Test
+    public void shouldRenderEachDistinctStackTraceOnce() {
+        String[] rendered = new String[3];
+        for (int i = 0; i < rendered.length; i++)
+            rendered[i] = cache.render(event(failure("connection refused")));
+
+        assertSame(rendered[0], rendered[1]);
+        assertSame(rendered[0], rendered[2]);
+        assertEquals(1, cache.size());
+        assertTrue(rendered[0].startsWith("java.lang.IllegalStateException: boom\n\tat "));
+        assertTrue(rendered[0].contains("Caused by: java.io.IOException: connection refused\n"));
+        assertFalse(rendered[0].contains("\r"));
+    }
+
+    @Test
+    public void shouldFingerprintByMessageFramesAndCause() {
+        String[] hashes = fingerprints("connection refused", "connection refused", "connection reset");
+        String other = ThrowableCache.fingerprint(new ThrowableInformation(failure("connection refused")));
+
+        assertEquals(16, hashes[0].length());
+        assertEquals(hashes[0], hashes[1]);
+        assertFalse(hashes[0].equals(hashes[2]));
+        assertFalse(hashes[0].equals(other)); // a different call site
+    }
+
+    @Test
+    public void shouldRenderNothingWithoutAThrowable() {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.INFO, "m", null);
+        LoggingEvent error = event(failure("x"));
+        assertEquals("", cache.render(event));
+        assertNull(ParamRenderer.compile("%throwableHash").render(event));
+        assertEquals(ThrowableCache.fingerprint(error.getThrowableInformation()),
+                ParamRenderer.compile("%throwableHash").render(error));
+    }
+
+    private static String[] fingerprints(String... causes) {
+        String[] hashes = new String[causes.length];
+        for (int i = 0; i < causes.length; i++)
+            hashes[i] = ThrowableCache.fingerprint(new ThrowableInformation(failure(causes[i])));
+        return hashes;
+    }
+
+    private static Throwable failure(String cause) {
+        return new IllegalStateException("boom", new java.io.IOException(cause));
+    }
+
+    private static LoggingEvent event(Throwable t) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.ERROR, "failed", t);
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.exaspace.log4jq;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WaitStrategyTest {
+
+    private static final String[] NAMES = {
+            WaitStrategy.BLOCKING, WaitStrategy.SLEEPING, WaitStrategy.YIELDING, WaitStrategy.BUSY_SPIN};
+
+    @Test
+    public void shouldCreateEachStrategyByNameAndRejectUnknownNames() {
+        assertTrue(WaitStrategy.forName("blocking", 10) instanceof WaitStrategy.Blocking);
+        assertTrue(WaitStrategy.forName("SLEEPING", 10) instanceof WaitStrategy.Sleeping);
+        assertTrue(WaitStrategy.forName("yielding", 10) instanceof WaitStrategy.Yielding);
+        assertTrue(WaitStrategy.forName("busyspin", 10) instanceof WaitStrategy.BusySpin);
+        assertNull(WaitStrategy.forName("spinning", 10));
+        assertNull(WaitStrategy.forName(null, 10));
+    }
+
+    @Test
+    public void shouldTakeAnEventOfferedWhileWaiting() throws Exception {
+        for (String name : NAMES) {
+            final EventQueue queue = new DequeEventQueue(10);
+            final LoggingEvent event = event();
+            Thread producer = new Thread() {
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ignored) {
+                    }
+                    queue.offer(event);
+                }
+            };
+            producer.start();
+            assertSame(name, event, WaitStrategy.forName(name, 10).take(queue));
+            producer.join();
+        }
+    }
+
+    @Test
+    public void shouldReturnNullWhenThePollTimesOut() throws Exception {
+        for (String name : NAMES) {
+            long start = System.nanoTime();
+            assertNull(name, WaitStrategy.forName(name, 10).poll(new DequeEventQueue(10), 30, TimeUnit.MILLISECONDS));
+            assertTrue(name, System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        }
+    }
+
+    @Test
+    public void shouldThrowWhenInterruptedWhileWaiting() throws Exception {
+        for (String name : NAMES) {
+            final WaitStrategy strategy = WaitStrategy.forName(name, 10);
+            final AtomicReference<Object> result = new AtomicReference<>();
+            Thread consumer = new Thread() {
+                public void run() {
+                    try {
+                        result.set(strategy.take(new DequeEventQueue(10)));
+                    } catch (InterruptedException e) {
+                        result.set(e);
+                    }
+                }
+            };
+            consumer.start();
+            Thread.sleep(50);
+            consumer.interrupt();
+            consumer.join(5000);
+            assertTrue(name, result.get() instanceof InterruptedException);
+        }
+    }
+
+    @Test
+    public void shouldReturnAQueuedEventWithoutWaiting() throws Exception {
+        for (String name : NAMES) {
+            EventQueue queue = new DequeEventQueue(10);
+            LoggingEvent event = event();
+            queue.offer(event);
+            assertSame(name, event, WaitStrategy.forName(name, 10).poll(queue, 0, TimeUnit.MILLISECONDS));
+            assertEquals(0, queue.size());
+        }
+    }
+
+    private static LoggingEvent event() {
+        return new LoggingEvent(Logger.class.getName(), Logger.getRootLogger(), Level.INFO, "m", null);
+    }
+
+}
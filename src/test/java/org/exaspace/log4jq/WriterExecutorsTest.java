@@ -0,0 +1,47 @@
+package org.exaspace.log4jq;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+public class WriterExecutorsTest {
+
+    private static final Callable<Thread> CURRENT_THREAD = new Callable<Thread>() {
+        @Override
+        public Thread call() {
+            return Thread.currentThread();
+        }
+    };
+
+    @Test
+    public void shouldRunTasksOnVirtualThreadsWhereAvailable() throws Exception {
+        ExecutorService executor = WriterExecutors.newVirtualThreadPerTaskExecutor("test-");
+        assumeNotNull(executor); // Java 21 or later
+        try {
+            Thread thread = executor.submit(CURRENT_THREAD).get(5, TimeUnit.SECONDS);
+            assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.getName().startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRunTasksOnNamedDaemonThreads() throws Exception {
+        ExecutorService executor = WriterExecutors.newFixedThreadPool("test-", 2);
+        try {
+            Thread thread = executor.submit(CURRENT_THREAD).get(5, TimeUnit.SECONDS);
+            assertTrue(thread.isDaemon());
+            assertEquals("test-0", thread.getName());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
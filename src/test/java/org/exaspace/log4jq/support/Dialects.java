@@ -40,6 +40,13 @@ public class Dialects {
 
         String insert();
 
+        /**
+         * COPY statement for the applog table (with a column for each of copySqlParams()), or null if not supported.
+         */
+        String copy();
+
+        String copySqlParams();
+
         String sqlParams();
 
         String sqlParamsSeparator();
@@ -87,6 +94,16 @@ public class Dialects {
             return "%c, %p, %t, %x, %m, %throwable"; // cat, prio, thread, ndc, message, exception
         }
 
+        @Override
+        public String copy() {
+            return null;
+        }
+
+        @Override
+        public String copySqlParams() {
+            return "%d, " + sqlParams();
+        }
+
         @Override
         public String sqlParamsSeparator() {
             return ",";
@@ -146,6 +163,11 @@ public class Dialects {
                     "      Trace text NULL)";
         }
 
+        @Override
+        public String copy() {
+            return "COPY applog (LogDate, Logger, Priority, ThreadID, Context, Message, Trace) FROM STDIN";
+        }
+
         @Override
         public String url() {
             return "jdbc:postgresql://localhost/postgres";